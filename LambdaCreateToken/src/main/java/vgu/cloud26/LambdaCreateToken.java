@@ -1,20 +1,10 @@
 package vgu.cloud26;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.time.Duration;
-import java.util.Base64;
 import java.util.Map;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -24,6 +14,20 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 
 public class LambdaCreateToken implements RequestHandler<Object, String> {
 
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaCreateToken", LambdaCreateToken::prime, () -> SecretProvider.invalidate());
+    }
+
+    private static void prime() {
+        new JSONObject("{\"body\":\"{\\\"email\\\":\\\"prime@example.com\\\"}\"}").getString("body");
+        try {
+            TokenEngine.generate("prime@example.com", "prime-key");
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public String handleRequest(Object input, Context context) {
         LambdaLogger logger = context.getLogger();
@@ -61,25 +65,10 @@ public class LambdaCreateToken implements RequestHandler<Object, String> {
             return "Error: Invalid Input Format";
         }
 
-        // 2. Professor's HttpClient snippet to get the key "cloud26key"
+        // 2. Get the key "cloud26key" (cached across warm invocations)
         try {
-            HttpClient client = HttpClient.newBuilder()
-                        .version(HttpClient.Version.HTTP_1_1)
-                        .followRedirects(HttpClient.Redirect.NORMAL)
-                        .connectTimeout(Duration.ofSeconds(10))
-                        .build();
-
-            HttpRequest requestParameter = HttpRequest.newBuilder()
-                        .uri(URI.create("http://localhost:2773/systemsmanager/parameters/get/?name=cloud26key&withDecryption=true"))
-                        .header("Accept", "application/json")
-                        .header("X-Aws-Parameters-Secrets-Token", System.getenv("AWS_SESSION_TOKEN"))
-                        .GET()
-                        .build();
-
-            HttpResponse<String> responseParameter = client.send(requestParameter, HttpResponse.BodyHandlers.ofString());
-            
-            JSONObject jsonResponse = new JSONObject(responseParameter.body());
-            String secretKey = jsonResponse.getJSONObject("Parameter").getString("Value");
+            String secretKey = SecretProvider.getSecret(logger);
+            logger.log("Secret cache: " + SecretProvider.stats());
 
             // 3. HMAC Token Generation
             return generateSecureToken(email, secretKey, logger);
@@ -90,18 +79,11 @@ public class LambdaCreateToken implements RequestHandler<Object, String> {
         }
     }
 
-    // --- Professor's HMAC Method ---
+    // --- HMAC Method (pooled Mac, see TokenEngine) ---
     public static String generateSecureToken(String data, String key, LambdaLogger logger) {
         try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            SecretKeySpec secretKeySpec = new SecretKeySpec(
-                key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"
-            );
-            mac.init(secretKeySpec);
-            
-            byte[] hmacBytes = mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
-            String base64Token = Base64.getEncoder().encodeToString(hmacBytes);
-            
+            String base64Token = TokenEngine.generate(data, key);
+
             logger.log("Input Email: " + data);
             logger.log("Secure Token: " + base64Token);
             return base64Token;
@@ -0,0 +1,84 @@
+package vgu.cloud26;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput and allocations per token of TokenEngine against the
+ * generateSecureToken it replaced. Not run by surefire; after
+ * "mvn test-compile" run main(), or org.openjdk.jmh.Main with "-prof gc",
+ * on the test classpath and compare ops/ms and gc.alloc.rate.norm (bytes
+ * per op).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenEngineBenchmark {
+
+    private final String email = "student@vgu.edu.vn";
+    private final String key = "cloud26-benchmark-key";
+    private final String token = legacyToken(email, key);
+
+    // generateSecureToken before TokenEngine
+    static String legacyToken(String data, String key) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            SecretKeySpec secretKeySpec = new SecretKeySpec(
+                key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"
+            );
+            mac.init(secretKeySpec);
+            byte[] hmacBytes = mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hmacBytes);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public String legacyGenerate() {
+        return legacyToken(email, key);
+    }
+
+    @Benchmark
+    public String engineGenerate() throws Exception {
+        return TokenEngine.generate(email, key);
+    }
+
+    @Benchmark
+    public boolean legacyVerify() {
+        return legacyToken(email, key).equals(token);
+    }
+
+    @Benchmark
+    public boolean engineVerify() throws Exception {
+        return TokenEngine.verify(email, key, token);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenEngineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,34 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TokenEngineTest {
+
+    @Test
+    public void matchesTheLegacyToken() throws Exception {
+        String[] emails = {"a@b.c", "student@vgu.edu.vn", "ünïcode@example.com", "", repeat('x', 500)};
+        for (String email : emails) {
+            assertEquals(TokenEngineBenchmark.legacyToken(email, "k1"), TokenEngine.generate(email, "k1"));
+            // Switching key re-initialises the pooled Mac
+            assertEquals(TokenEngineBenchmark.legacyToken(email, "k2"), TokenEngine.generate(email, "k2"));
+        }
+    }
+
+    @Test
+    public void verifiesOnlyTheExactToken() throws Exception {
+        String token = TokenEngine.generate("a@b.c", "k1");
+        assertTrue(TokenEngine.verify("a@b.c", "k1", token));
+        assertFalse(TokenEngine.verify("a@b.c", "k2", token));
+        assertFalse(TokenEngine.verify("a@b.c", "k1", token.substring(1)));
+        assertFalse(TokenEngine.verify("a@b.c", "k1", token + "A"));
+        assertFalse(TokenEngine.verify("a@b.c", "k1", null));
+    }
+
+    private static String repeat(char c, int n) {
+        return String.valueOf(c).repeat(n);
+    }
+}
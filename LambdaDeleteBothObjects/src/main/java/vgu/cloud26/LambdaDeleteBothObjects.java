@@ -10,10 +10,38 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetUrlRequest;
 
 public class LambdaDeleteBothObjects
         implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
+    // Static client for connection reuse across warm invocations
+    private static volatile S3Client s3Client = newS3Client();
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaDeleteBothObjects", LambdaDeleteBothObjects::prime, LambdaDeleteBothObjects::restore);
+    }
+
+    private static void prime() {
+        // Endpoint resolution and request marshalling on the real client, no network call
+        s3Client.utilities().getUrl(GetUrlRequest.builder().bucket("bucket-vts253").key("prime.png").build());
+        DeleteObjectRequest.builder().bucket("resized-bucket-vts253").key("resized-prime.png").build();
+    }
+
+    // A fresh client after a SnapStart restore, so nothing from before the snapshot is reused
+    private static void restore() {
+        S3Client old = s3Client;
+        s3Client = newS3Client();
+        old.close();
+    }
+
+    private static S3Client newS3Client() {
+        return S3Client.builder()
+                .region(Region.AP_SOUTHEAST_1)
+                .build();
+    }
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(
             APIGatewayProxyRequestEvent event, Context context) {
@@ -22,16 +50,12 @@ public class LambdaDeleteBothObjects
             JSONObject body = new JSONObject(event.getBody());
             String key = body.getString("key");
 
-            S3Client s3 = S3Client.builder()
-                    .region(Region.AP_SOUTHEAST_1)
-                    .build();
-
-            s3.deleteObject(DeleteObjectRequest.builder()
+            s3Client.deleteObject(DeleteObjectRequest.builder()
                     .bucket("bucket-vts253")
                     .key(key)
                     .build());
 
-            s3.deleteObject(DeleteObjectRequest.builder()
+            s3Client.deleteObject(DeleteObjectRequest.builder()
                     .bucket("resized-bucket-vts253")
                     .key("resized-" + key)
                     .build());
@@ -8,13 +8,39 @@ import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.lambda.LambdaClient;
 import software.amazon.awssdk.services.lambda.model.InvokeRequest;
-import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+import software.amazon.awssdk.services.s3.S3Client;
 
 public class LambdaDeleteOrchestration implements RequestHandler<Map<String, Object>, String> {
 
-    private final LambdaClient lambdaClient = LambdaClient.builder()
+    private static final InvocationRouter router = new InvocationRouter(() -> LambdaClient.builder()
             .region(Region.AP_SOUTHEAST_1)
-            .build();
+            .build());
+    // Rebuilt, with its S3 client, after a SnapStart restore
+    private static volatile S3Client s3 = S3Client.builder().region(Region.AP_SOUTHEAST_1).build();
+    private static volatile GalleryManifest manifest = new GalleryManifest(s3);
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaDeleteOrchestration", LambdaDeleteOrchestration::prime,
+                LambdaDeleteOrchestration::restore);
+    }
+
+    private static void prime() {
+        InvokeRequest.builder()
+                .functionName("LambdaPriming")
+                .payload(SdkBytes.fromUtf8String(new JSONObject().put("body", "{}").toString()))
+                .build();
+        new JSONObject("{\"statusCode\":200}").getInt("statusCode");
+    }
+
+    // Fresh clients after a SnapStart restore, so nothing from before the snapshot is reused
+    private static void restore() {
+        router.reset();
+        S3Client old = s3;
+        s3 = S3Client.builder().region(Region.AP_SOUTHEAST_1).build();
+        manifest = new GalleryManifest(s3);
+        old.close();
+    }
 
     @Override
     public String handleRequest(Map<String, Object> input, Context context) {
@@ -39,6 +65,15 @@ public class LambdaDeleteOrchestration implements RequestHandler<Map<String, Obj
             // 3. Only if DB succeeds -> delete S3 objects
             invoke("LambdaDeleteBothObjects", wrappedPayload);
 
+            // 4. Drop the photo from the gallery manifest
+            try {
+                manifest.remove(new JSONObject(bodyFromHtml).getString("key"), context.getLogger());
+            } catch (RuntimeException e) {
+                // A manifest still listing the photo is worse than none: drop it so the next listing rebuilds
+                context.getLogger().log("Gallery manifest update failed: " + e);
+                manifest.invalidate(context.getLogger());
+            }
+
             return new JSONObject()
                 .put("statusCode", 200)
                 .put("body", new JSONObject().put("message", "Deleted everywhere").toString())
@@ -53,12 +88,6 @@ public class LambdaDeleteOrchestration implements RequestHandler<Map<String, Obj
     }
 
     private String invoke(String functionName, String payload) {
-        InvokeRequest request = InvokeRequest.builder()
-                .functionName(functionName)
-                .payload(SdkBytes.fromUtf8String(payload))
-                .build();
-
-        InvokeResponse response = lambdaClient.invoke(request);
-        return response.payload().asUtf8String();
+        return router.invoke(functionName, payload);
     }
 }
\ No newline at end of file
@@ -1,13 +1,12 @@
     package vgu.cloud26;
 
     import java.sql.Connection;
-    import java.sql.DriverManager;
     import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Base64;
     import java.util.Collections;
     import java.util.Map;
-    import java.util.Properties;
 
     import org.json.JSONObject;
 
@@ -17,7 +16,6 @@ import java.util.Base64;
     import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
     import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-    import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
     import software.amazon.awssdk.regions.Region;
     import software.amazon.awssdk.services.rds.RdsUtilities;
     import software.amazon.awssdk.services.rds.model.GenerateAuthenticationTokenRequest;
@@ -33,6 +31,43 @@ public class LambdaDeletePhotoDB
     private static final String DB_USER = "cloud26";
     private static final String JDBC_URL =
             "jdbc:mysql://" + RDS_INSTANCE_HOSTNAME + ":" + RDS_INSTANCE_PORT + "/Cloud26";
+    // Kept across warm invocations; always the primary, a lagging replica could still
+    // show a photo that is gone, or an owner that has changed
+    private static final ConnectionPool defaultPool =
+            new ConnectionPool(JDBC_URL, RDS_INSTANCE_HOSTNAME, RDS_INSTANCE_PORT, DB_USER);
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        // Restored copies must not share connections or the IAM token
+        Priming.register("LambdaDeletePhotoDB", LambdaDeletePhotoDB::prime, defaultPool::reset);
+    }
+
+    private final ConnectionPool pool;
+
+    public LambdaDeletePhotoDB() {
+        this(defaultPool);
+    }
+
+    // Tests pass a pool over a local database
+    LambdaDeletePhotoDB(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    private static void prime() {
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        // Builds the signer without generating a token, credentials come after restore
+        RdsUtilities.builder().region(Region.AP_SOUTHEAST_1).build();
+        GenerateAuthenticationTokenRequest.builder()
+                .hostname(RDS_INSTANCE_HOSTNAME)
+                .port(RDS_INSTANCE_PORT)
+                .username(DB_USER)
+                .build();
+        new JSONObject("{\"key\":\"prime.png\",\"email\":\"prime@example.com\"}").optString("key");
+    }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
@@ -48,31 +83,28 @@ public class LambdaDeletePhotoDB
                 return error(400, "Missing required fields");
             }
 
-            Class.forName("com.mysql.cj.jdbc.Driver");
-
-            try (Connection conn = DriverManager.getConnection(JDBC_URL, setMySqlConnectionProperties())) {
-                // Check ownership
-                String checkSql = "SELECT Email FROM Photos WHERE S3Key = ?";
-                try (PreparedStatement check = conn.prepareStatement(checkSql)) {
-                    check.setString(1, key);
-                    ResultSet rs = check.executeQuery();
-
-                    if (!rs.next()) return error(404, "Photo not found");
-
-                    String ownerEmail = rs.getString("Email");
-                    // Case-insensitive comparison is safer for emails
-                    if (!email.equalsIgnoreCase(ownerEmail)) {
-                        return error(403, "Permission Denied: You do not own this photo.");
-                    }
-                }
-
-                // Delete record
-                String deleteSql = "DELETE FROM Photos WHERE S3Key = ?";
-                try (PreparedStatement del = conn.prepareStatement(deleteSql)) {
+            // The ownership check is part of the delete; Email uses the table's
+            // case-insensitive collation
+            try (Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
+                int deleted;
+                try (PreparedStatement del = conn.prepareStatement(
+                        "DELETE FROM Photos WHERE S3Key = ? AND Email = ?")) {
                     del.setString(1, key);
-                    del.executeUpdate();
+                    del.setString(2, email);
+                    deleted = del.executeUpdate();
                 }
+                if (deleted == 0) {
+                    // Nothing removed: tell a missing photo from someone else's
+                    String ownerEmail = ownerOf(conn, key);
+                    conn.rollback();
+                    if (ownerEmail == null) return error(404, "Photo not found");
+                    return error(403, "Permission Denied: You do not own this photo.");
+                }
+                bumpPhotosVersion(conn);
+                conn.commit();
             }
+            context.getLogger().log("DB pool " + pool.stats());
             return success("DB record removed successfully");
 
         } catch (Exception e) {
@@ -80,6 +112,34 @@ public class LambdaDeletePhotoDB
         }
     }
 
+    // Owner email of the photo, or null when there is no such row
+    private static String ownerOf(Connection conn, String key) throws SQLException {
+        try (PreparedStatement check = conn.prepareStatement("SELECT Email FROM Photos WHERE S3Key = ?")) {
+            check.setString(1, key);
+            try (ResultSet rs = check.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                // A row without an owner belongs to nobody
+                String owner = rs.getString("Email");
+                return owner == null ? "" : owner;
+            }
+        }
+    }
+
+    // Lets LambdaGetPhotosDB's PhotosCache see the change; skipped until V3 adds the counter table
+    private static void bumpPhotosVersion(Connection conn) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(
+                "UPDATE PhotosVersion SET Version = Version + 1 WHERE ID = 1")) {
+            st.executeUpdate();
+        } catch (SQLException e) {
+            // MySQL ER_NO_SUCH_TABLE
+            if (e.getErrorCode() != 1146) {
+                throw e;
+            }
+        }
+    }
+
     private APIGatewayProxyResponseEvent success(String msg) {
         return new APIGatewayProxyResponseEvent()
                 .withStatusCode(200)
@@ -102,25 +162,6 @@ public class LambdaDeletePhotoDB
                         .toString());
     }
 
-    private static Properties setMySqlConnectionProperties() throws Exception {
-        Properties props = new Properties();
-        props.setProperty("useSSL", "true");
-        props.setProperty("user", DB_USER);
-        props.setProperty("password", generateAuthToken());
-        return props;
-    }
-
-    private static String generateAuthToken() throws Exception {
-        RdsUtilities rds = RdsUtilities.builder().build();
-        return rds.generateAuthenticationToken(
-                GenerateAuthenticationTokenRequest.builder()
-                        .hostname(RDS_INSTANCE_HOSTNAME)
-                        .port(RDS_INSTANCE_PORT)
-                        .username(DB_USER)
-                        .region(Region.AP_SOUTHEAST_1)
-                        .credentialsProvider(DefaultCredentialsProvider.create())
-                        .build());
-    }
 }
 
 
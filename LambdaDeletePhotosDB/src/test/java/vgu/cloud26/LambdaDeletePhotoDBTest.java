@@ -0,0 +1,106 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+/**
+ * Runs the handler against an in-memory database and checks the ownership
+ * decided by the DELETE itself.
+ */
+public class LambdaDeletePhotoDBTest {
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private Connection db;
+    private LambdaDeletePhotoDB handler;
+
+    @Before
+    public void setUp() throws Exception {
+        String url = "jdbc:h2:mem:photos" + counter.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        db = open(url);
+        handler = new LambdaDeletePhotoDB(new ConnectionPool(url, "sa", ""));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Statement st = db.createStatement()) {
+            st.execute("SHUTDOWN");
+        }
+        db.close();
+    }
+
+    private static Connection open(String url) throws SQLException {
+        Connection conn = DriverManager.getConnection(url, "sa", "");
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE Photos ("
+                    + "ID INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                    + "Description VARCHAR(1024), "
+                    + "Email VARCHAR(255), "
+                    + "S3Key VARCHAR(255) NOT NULL UNIQUE, "
+                    + "ResizedKey VARCHAR(255))");
+            st.execute("CREATE TABLE PhotosVersion (ID TINYINT NOT NULL PRIMARY KEY, Version BIGINT NOT NULL)");
+            st.execute("INSERT INTO PhotosVersion (ID, Version) VALUES (1, 0)");
+        }
+        return conn;
+    }
+
+    private static void insert(Connection conn, String key, String email) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement("INSERT INTO Photos (Email, S3Key) VALUES (?, ?)")) {
+            st.setString(1, email);
+            st.setString(2, key);
+            st.executeUpdate();
+        }
+    }
+
+    private static long count(Connection conn, String sql) throws SQLException {
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private int delete(String key, String email) {
+        return handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withBody(new JSONObject().put("key", key).put("email", email).toString()),
+                new TestContext()).getStatusCode();
+    }
+
+    @Test
+    public void ownerDeletesTheRow() throws Exception {
+        insert(db, "a.png", "owner@example.com");
+
+        assertEquals(200, delete("a.png", "owner@example.com"));
+
+        assertEquals(0, count(db, "SELECT COUNT(*) FROM Photos"));
+        assertEquals(1, count(db, "SELECT Version FROM PhotosVersion"));
+    }
+
+    @Test
+    public void otherUsersPhotoIsForbidden() throws Exception {
+        insert(db, "a.png", "other@example.com");
+
+        assertEquals(403, delete("a.png", "owner@example.com"));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM Photos"));
+        assertEquals(0, count(db, "SELECT Version FROM PhotosVersion"));
+    }
+
+    @Test
+    public void missingPhotoIsNotFound() throws Exception {
+        assertEquals(404, delete("a.png", "owner@example.com"));
+        assertEquals(400, delete("", "owner@example.com"));
+    }
+}
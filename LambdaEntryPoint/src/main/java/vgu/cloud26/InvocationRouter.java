@@ -0,0 +1,53 @@
+package vgu.cloud26;
+
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.lambda.model.InvokeRequest;
+
+/**
+ * Calls the other handlers in this repo through LambdaClient.invoke and
+ * returns their JSON payload.
+ *
+ * Every module is shaded into its own jar with only its own handler, so the
+ * target class is never on the classpath here and there is no in-process
+ * shortcut: each call is a real invoke with the callee's own Context. A
+ * handler that throws comes back as the runtime's {errorMessage, errorType}
+ * payload, which callers already treat as a failure.
+ */
+public final class InvocationRouter {
+
+    // Null when the caller passed its own client, which reset() then leaves alone
+    private final Supplier<LambdaClient> factory;
+    private volatile LambdaClient lambdaClient;
+
+    public InvocationRouter(LambdaClient lambdaClient) {
+        this.factory = null;
+        this.lambdaClient = lambdaClient;
+    }
+
+    // Builds its own client, so reset() can replace it after a SnapStart restore
+    public InvocationRouter(Supplier<LambdaClient> factory) {
+        this.factory = factory;
+        this.lambdaClient = factory.get();
+    }
+
+    // A fresh client after a SnapStart restore, so no connection from before the snapshot is reused
+    public synchronized void reset() {
+        if (factory == null) {
+            return;
+        }
+        LambdaClient old = lambdaClient;
+        lambdaClient = factory.get();
+        old.close();
+    }
+
+    public String invoke(String functionName, String payload) {
+        return lambdaClient.invoke(InvokeRequest.builder()
+                        .functionName(functionName)
+                        .payload(SdkBytes.fromUtf8String(payload))
+                        .build())
+                .payload().asUtf8String();
+    }
+}
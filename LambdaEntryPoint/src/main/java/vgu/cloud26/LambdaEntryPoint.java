@@ -1,7 +1,7 @@
 package vgu.cloud26;
 
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.json.JSONObject;
@@ -12,53 +12,41 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.lambda.LambdaClient;
 import software.amazon.awssdk.services.lambda.model.InvokeRequest;
-import software.amazon.awssdk.services.lambda.model.InvokeResponse;
 
 
 public class LambdaEntryPoint implements
         RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
-    private final LambdaClient lambdaClient;
+    // Built once per container and shared by every request; its client is rebuilt after a restore
+    private static final InvocationRouter router = new InvocationRouter(() -> LambdaClient.builder()
+            .region(Region.of("ap-southeast-1"))
+            .build());
+    private static final StaticAssetCache defaultAssets = new StaticAssetCache(router);
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaEntryPoint", LambdaEntryPoint::prime, router::reset);
+    }
 
-    public LambdaEntryPoint() {
-        this.lambdaClient = LambdaClient.builder()
-                .region(Region.of("ap-southeast-1"))
+    private static void prime() {
+        InvokeRequest.builder()
+                .functionName("LambdaPriming")
+                .payload(SdkBytes.fromUtf8String(new JSONObject().put("body", "{}").toString()))
                 .build();
     }
 
-    public String callLambda(String functionName, String payload,  LambdaLogger logger) {
-        String message;
-        InvokeRequest invokeRequest = InvokeRequest.builder()
-                .functionName(functionName)
-                //.invocationType("Event") // Asynchronous invocation
-                .payload(SdkBytes.fromUtf8String(payload))
-                .invocationType("RequestResponse")
-                .build();
+    private final StaticAssetCache assets;
 
-        try {
-            InvokeResponse invokeResult =
-                    lambdaClient.invoke(invokeRequest);
-
-            ByteBuffer responsePayload =
-                    invokeResult.payload().asByteBuffer();
-            String responseString = StandardCharsets.UTF_8.decode(responsePayload).toString();
-
-            JSONObject responseObject = new JSONObject(responseString);
-            message = responseObject.getString("body");
-            logger.log("Response: " + message);
-
-            return message;
-        } catch (AwsServiceException | SdkClientException e) {
-            message = "Error " + functionName +
-                    ": " + e.getMessage();
-            logger.log(message);
-        }
-        return message;
+    public LambdaEntryPoint() {
+        this(defaultAssets);
+    }
+
+    // Tests pass a cache backed by a local Lambda
+    LambdaEntryPoint(StaticAssetCache assets) {
+        this.assets = assets;
     }
 
     @Override
@@ -66,26 +54,75 @@ public class LambdaEntryPoint implements
 
         LambdaLogger logger = cntxt.getLogger();
         logger.log("Invoking");
-        LambdaEntryPoint caller = new LambdaEntryPoint();
-        JSONObject body = new JSONObject();
-        body.put("key", "index.html");
-        JSONObject json = new JSONObject();
-        json.put("body", body.toString());
-        String payload = json.toString();
-        String message = caller.callLambda("LambdaGetObjects",
-                payload, logger);
 
+        StaticAssetCache.Asset page;
+        try {
+            page = assets.get("index.html", cntxt);
+        } catch (RuntimeException e) {
+            logger.log("Error LambdaGetObjects: " + e.getMessage());
+            return new APIGatewayProxyResponseEvent()
+                    .withStatusCode(502)
+                    .withHeaders(Map.of("content-type", "text/plain"))
+                    .withBody("Error LambdaGetObjects: " + e.getMessage());
+        }
+
+        String encoding = page.encodingFor(header(event, "Accept-Encoding"));
+        String eTag = page.eTagFor(encoding);
 
-        Map<String, String> headersMap;
-            headersMap = Map.of(
-                    "content-type", "text/html");
+        Map<String, String> headersMap = new HashMap<>();
+        headersMap.put("content-type", page.getContentType());
+        headersMap.put("vary", "Accept-Encoding");
+        if (!encoding.equals("identity")) {
+            headersMap.put("content-encoding", encoding);
+        }
+        if (eTag != null) {
+            headersMap.put("etag", eTag);
+            if (notModified(header(event, "If-None-Match"), eTag)) {
+                headersMap.remove("content-type");
+                headersMap.remove("content-encoding");
+                return new APIGatewayProxyResponseEvent()
+                        .withStatusCode(304)
+                        .withHeaders(headersMap);
+            }
+        }
 
-            return new APIGatewayProxyResponseEvent()
-                    .withStatusCode(200)
-                    .withHeaders(headersMap)
-                    .withBody(message)
-                    .withIsBase64Encoded(true);
+        return new APIGatewayProxyResponseEvent()
+                .withStatusCode(200)
+                .withHeaders(headersMap)
+                .withBody(Base64.getEncoder().encodeToString(page.bytes(encoding)))
+                .withIsBase64Encoded(true);
+    }
 
+    // If-None-Match may list several tags, weak ones, or "*"
+    static boolean notModified(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || eTag == null) {
+            return false;
+        }
+        String current = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // API Gateway may pass header names in any case
+    private static String header(APIGatewayProxyRequestEvent event, String name) {
+        Map<String, String> headers = event == null ? null : event.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
     }
 
 }
\ No newline at end of file
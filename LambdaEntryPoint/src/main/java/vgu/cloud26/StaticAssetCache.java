@@ -0,0 +1,238 @@
+package vgu.cloud26;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONObject;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * Warm in-memory copy of the static assets served by the entry point.
+ *
+ * Assets are fetched through LambdaGetObjects once and kept together with a
+ * gzip variant compressed at load time and, when the bucket holds one, the
+ * brotli variant "<key>.br" produced at deploy time (the JDK has no brotli
+ * encoder). Within STATIC_ASSET_TTL_SECONDS (default 60) a request touches no
+ * other service; after that the asset and its brotli copy are each
+ * revalidated with their own ETag and only downloaded again when they
+ * changed. If revalidation fails the stale copy is served.
+ */
+public final class StaticAssetCache {
+
+    private static final long TTL_MILLIS =
+            Long.parseLong(envOrDefault("STATIC_ASSET_TTL_SECONDS", "60")) * 1000;
+
+    // Overridden by the tests to expire entries without waiting
+    static volatile LongSupplier clock = System::currentTimeMillis;
+
+    private final InvocationRouter router;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+    public StaticAssetCache(InvocationRouter router) {
+        this.router = router;
+    }
+
+    public Asset get(String key, Context context) {
+        Asset cached = assets.get(key);
+        long now = clock.getAsLong();
+        if (cached != null && now - cached.checkedAt < TTL_MILLIS) {
+            return cached;
+        }
+
+        synchronized (this) {
+            cached = assets.get(key);
+            if (cached != null && now - cached.checkedAt < TTL_MILLIS) {
+                return cached;
+            }
+            try {
+                Asset loaded = load(key, cached, context);
+                assets.put(key, loaded);
+                return loaded;
+            } catch (RuntimeException e) {
+                if (cached == null) {
+                    throw e;
+                }
+                context.getLogger().log("Revalidating " + key + " failed, serving cached copy: " + e.getMessage());
+                return cached;
+            }
+        }
+    }
+
+    private Asset load(String key, Asset cached, Context context) {
+        JSONObject response = fetch(key, cached == null ? null : cached.eTag);
+        int status = response.optInt("statusCode", 200);
+
+        String contentType;
+        String eTag;
+        byte[] identity;
+        byte[] gzip;
+        if (status == 304 && cached != null) {
+            contentType = cached.contentType;
+            eTag = cached.eTag;
+            identity = cached.identity;
+            gzip = cached.gzip;
+        } else if (status == 200) {
+            Map<String, String> headers = headers(response);
+            identity = Base64.getDecoder().decode(response.optString("body", ""));
+            eTag = headers.get("etag");
+            contentType = headers.getOrDefault("content-type", "application/octet-stream");
+            gzip = gzip(identity);
+            context.getLogger().log("Cached " + key + " (" + identity.length + " bytes, etag " + eTag + ")");
+        } else {
+            throw new IllegalStateException("LambdaGetObjects returned " + status + " for " + key);
+        }
+
+        // The deploy step may upload a brotli copy next to the asset; it can change on its own
+        byte[] brotli = null;
+        String brotliETag = null;
+        JSONObject br = fetch(key + ".br", cached == null ? null : cached.brotliETag);
+        int brStatus = br.optInt("statusCode", 200);
+        if (brStatus == 304 && cached != null) {
+            brotli = cached.brotli;
+            brotliETag = cached.brotliETag;
+        } else if (brStatus == 200 && !br.optString("body", "").isEmpty()) {
+            brotli = Base64.getDecoder().decode(br.getString("body"));
+            brotliETag = headers(br).get("etag");
+        }
+
+        return new Asset(contentType, eTag, identity, gzip, brotli, brotliETag, clock.getAsLong());
+    }
+
+    private JSONObject fetch(String key, String eTag) {
+        JSONObject request = new JSONObject()
+                .put("body", new JSONObject().put("key", key).toString());
+        if (eTag != null) {
+            request.put("headers", new JSONObject().put("If-None-Match", eTag));
+        }
+        JSONObject response = new JSONObject(router.invoke("LambdaGetObjects", request.toString()));
+        if (response.has("errorMessage")) {
+            throw new IllegalStateException("LambdaGetObjects failed: " + response.getString("errorMessage"));
+        }
+        return response;
+    }
+
+    // Header names lower-cased, since they may arrive in any case
+    private static Map<String, String> headers(JSONObject response) {
+        Map<String, String> headers = new HashMap<>();
+        JSONObject json = response.optJSONObject("headers");
+        if (json != null) {
+            for (String name : json.keySet()) {
+                headers.put(name.toLowerCase(Locale.ROOT), json.optString(name));
+            }
+        }
+        return headers;
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    public static final class Asset {
+        private final String contentType;
+        private final String eTag;
+        private final byte[] identity;
+        private final byte[] gzip;
+        private final byte[] brotli;
+        private final String brotliETag;
+        private final long checkedAt;
+
+        private Asset(String contentType, String eTag, byte[] identity, byte[] gzip, byte[] brotli,
+                String brotliETag, long checkedAt) {
+            this.contentType = contentType;
+            this.eTag = eTag;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.brotli = brotli;
+            this.brotliETag = brotliETag;
+            this.checkedAt = checkedAt;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        // Each encoding is a different representation, so it gets its own tag;
+        // the brotli copy is a separate object, so its tag follows that object
+        public String eTagFor(String encoding) {
+            String base = encoding.equals("br") ? brotliETag : eTag;
+            if (base == null || encoding.equals("identity")) {
+                return base;
+            }
+            String opaque = base.endsWith("\"") ? base.substring(0, base.length() - 1) : base;
+            return opaque + "-" + encoding + "\"";
+        }
+
+        // Best encoding the client accepts: the higher q of br and gzip, br on a tie, else none
+        public String encodingFor(String acceptEncoding) {
+            double br = brotli == null ? 0 : quality(acceptEncoding, "br");
+            double gzip = quality(acceptEncoding, "gzip");
+            if (br > 0 && br >= gzip) {
+                return "br";
+            }
+            if (gzip > 0) {
+                return "gzip";
+            }
+            return "identity";
+        }
+
+        public byte[] bytes(String encoding) {
+            if (encoding.equals("br")) {
+                return brotli;
+            }
+            if (encoding.equals("gzip")) {
+                return gzip;
+            }
+            return identity;
+        }
+
+        // q-value for the coding; the exact name wins over "*", as in ResponseBuilder.negotiate
+        private static double quality(String acceptEncoding, String coding) {
+            if (acceptEncoding == null) {
+                return 0;
+            }
+            Double exact = null;
+            double any = 0;
+            for (String part : acceptEncoding.split(",")) {
+                String[] params = part.trim().split(";");
+                String name = params[0].trim().toLowerCase(Locale.ROOT);
+                double q = 1;
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            q = Double.parseDouble(param.substring(2));
+                        } catch (NumberFormatException e) {
+                            q = 0;
+                        }
+                    }
+                }
+                if (name.equals(coding)) {
+                    exact = q;
+                } else if (name.equals("*")) {
+                    any = q;
+                }
+            }
+            return exact != null ? exact : any;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package vgu.cloud26;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.UnaryOperator;
+
+import com.sun.net.httpserver.HttpServer;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.lambda.LambdaClient;
+
+/**
+ * Local stand-in for the Lambda Invoke API. Each registered function maps
+ * the request payload to a response payload; a function that throws is
+ * reported the way Lambda reports an unhandled error.
+ */
+final class LocalLambda implements AutoCloseable {
+
+    private static final String PATH = "/2015-03-31/functions/";
+
+    private final HttpServer server;
+    private final Map<String, UnaryOperator<String>> functions = new ConcurrentHashMap<>();
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+
+    LocalLambda() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PATH, exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String name = path.substring(PATH.length(), path.indexOf("/invocations"));
+            String payload = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            calls.add(name);
+
+            UnaryOperator<String> function = functions.get(name);
+            int status = 200;
+            String body;
+            if (function == null) {
+                status = 404;
+                body = "{\"Type\":\"User\",\"message\":\"Function not found: " + name + "\"}";
+                exchange.getResponseHeaders().add("x-amzn-ErrorType", "ResourceNotFoundException");
+            } else {
+                try {
+                    body = function.apply(payload);
+                } catch (RuntimeException e) {
+                    exchange.getResponseHeaders().add("X-Amz-Function-Error", "Unhandled");
+                    body = "{\"errorMessage\":\"" + e.getMessage() + "\",\"errorType\":\""
+                            + e.getClass().getName() + "\"}";
+                }
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    void register(String functionName, UnaryOperator<String> function) {
+        functions.put(functionName, function);
+    }
+
+    // Function names in the order they were invoked
+    List<String> calls() {
+        return calls;
+    }
+
+    LambdaClient client() {
+        return LambdaClient.builder()
+                .endpointOverride(URI.create("http://127.0.0.1:" + server.getAddress().getPort()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                .build();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,138 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.lambda.LambdaClient;
+
+public class StaticAssetCacheTest {
+
+    private static final String INDEX = "<html><body>" + "gallery ".repeat(200) + "</body></html>";
+
+    private LocalLambda lambda;
+    private LambdaClient client;
+    private StaticAssetCache cache;
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    // Key to {body, etag}, served the way LambdaGetObjects answers
+    private final Map<String, String[]> objects = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        lambda = new LocalLambda();
+        client = lambda.client();
+        StaticAssetCache.clock = now::get;
+        lambda.register("LambdaGetObjects", payload -> {
+            JSONObject event = new JSONObject(payload);
+            String key = new JSONObject(event.getString("body")).getString("key");
+            String ifNoneMatch = event.has("headers")
+                    ? event.getJSONObject("headers").optString("If-None-Match", null) : null;
+            String[] object = objects.get(key);
+            if (object == null) {
+                return new JSONObject().put("statusCode", 404).put("body", "").toString();
+            }
+            JSONObject headers = new JSONObject().put("ETag", object[1]).put("Content-Type", "text/html");
+            if (object[1].equals(ifNoneMatch)) {
+                return new JSONObject().put("statusCode", 304).put("headers", headers).toString();
+            }
+            return new JSONObject()
+                    .put("statusCode", 200)
+                    .put("headers", headers)
+                    .put("isBase64Encoded", true)
+                    .put("body", Base64.getEncoder().encodeToString(object[0].getBytes(StandardCharsets.UTF_8)))
+                    .toString();
+        });
+        cache = new StaticAssetCache(new InvocationRouter(client));
+    }
+
+    @After
+    public void tearDown() {
+        StaticAssetCache.clock = System::currentTimeMillis;
+        client.close();
+        lambda.close();
+    }
+
+    private APIGatewayProxyResponseEvent request(Map<String, String> headers) {
+        return new LambdaEntryPoint(cache).handleRequest(
+                new APIGatewayProxyRequestEvent().withHeaders(headers), new TestContext());
+    }
+
+    @Test
+    public void warmRequestTouchesNoOtherService() {
+        objects.put("index.html", new String[] {INDEX, "\"v1\""});
+        request(null);
+        int calls = lambda.calls().size();
+
+        APIGatewayProxyResponseEvent response = request(Map.of("Accept-Encoding", "gzip"));
+
+        assertEquals(200, (int) response.getStatusCode());
+        assertEquals("gzip", response.getHeaders().get("content-encoding"));
+        assertEquals(calls, lambda.calls().size());
+    }
+
+    @Test
+    public void brotliCopyIsRevalidatedWithItsOwnTag() {
+        objects.put("index.html", new String[] {INDEX, "\"v1\""});
+        objects.put("index.html.br", new String[] {"br-1", "\"b1\""});
+        StaticAssetCache.Asset first = cache.get("index.html", new TestContext());
+        assertEquals("\"b1-br\"", first.eTagFor("br"));
+
+        // Redeployed brotli copy, same identity object
+        objects.put("index.html.br", new String[] {"br-2", "\"b2\""});
+        now.addAndGet(61_000);
+        StaticAssetCache.Asset second = cache.get("index.html", new TestContext());
+
+        assertArrayEquals("br-2".getBytes(StandardCharsets.UTF_8), second.bytes("br"));
+        assertEquals("\"b2-br\"", second.eTagFor("br"));
+        assertEquals(first.eTagFor("identity"), second.eTagFor("identity"));
+
+        // Removed brotli copy: br is no longer offered
+        objects.remove("index.html.br");
+        now.addAndGet(61_000);
+        assertEquals("gzip", cache.get("index.html", new TestContext()).encodingFor("br, gzip"));
+    }
+
+    @Test
+    public void ifNoneMatchAcceptsListsWeakTagsAndStar() {
+        objects.put("index.html", new String[] {INDEX, "\"v1\""});
+        String eTag = request(null).getHeaders().get("etag");
+
+        assertEquals(304, (int) request(Map.of("If-None-Match", "\"old\", W/" + eTag)).getStatusCode());
+        assertEquals(304, (int) request(Map.of("if-none-match", "*")).getStatusCode());
+        APIGatewayProxyResponseEvent changed = request(Map.of("If-None-Match", "\"old\""));
+        assertEquals(200, (int) changed.getStatusCode());
+        assertNull(changed.getHeaders().get("content-encoding"));
+
+        // The gzip representation has its own tag, so the identity tag does not match it
+        APIGatewayProxyResponseEvent gzip = request(Map.of("If-None-Match", eTag, "Accept-Encoding", "gzip"));
+        assertEquals(200, (int) gzip.getStatusCode());
+        assertNotEquals(eTag, gzip.getHeaders().get("etag"));
+    }
+
+    @Test
+    public void listedCodingWinsOverARefusedStar() {
+        objects.put("index.html", new String[] {INDEX, "\"v1\""});
+        objects.put("index.html.br", new String[] {"br-1", "\"b1\""});
+
+        assertEquals("gzip", request(Map.of("Accept-Encoding", "*;q=0, gzip")).getHeaders().get("content-encoding"));
+        assertEquals("br", request(Map.of("Accept-Encoding", "gzip;q=0.5, *")).getHeaders().get("content-encoding"));
+        assertEquals("gzip", request(Map.of("Accept-Encoding", "br;q=0.2, gzip;q=0.8")).getHeaders()
+                .get("content-encoding"));
+        assertNull(request(Map.of("Accept-Encoding", "gzip;q=0, *;q=0")).getHeaders().get("content-encoding"));
+    }
+}
@@ -1,7 +1,18 @@
 package vgu.cloud26;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -12,80 +23,431 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.lambda.LambdaClient;
-import software.amazon.awssdk.services.lambda.model.InvokeRequest;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetUrlRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 public class LambdaGetListOfObjects implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
     private static final String THUMB_BUCKET = "resized-bucket-vts253";
-    private static final LambdaClient lambda = LambdaClient.builder().region(Region.AP_SOUTHEAST_1).build();
-    private static final S3Client s3 = S3Client.builder().region(Region.AP_SOUTHEAST_1).build();
+    // Rebuilt, together with the manifest that uses it, after a SnapStart restore; replaced by the tests
+    static volatile S3Client s3 = S3Client.builder().region(Region.AP_SOUTHEAST_1).build();
+    private static final S3Presigner presigner = S3Presigner.builder().region(Region.AP_SOUTHEAST_1).build();
+    // Its client is rebuilt after a SnapStart restore; replaced by the tests
+    static volatile InvocationRouter router =
+            new InvocationRouter(() -> LambdaClient.builder().region(Region.AP_SOUTHEAST_1).build());
+    static volatile GalleryManifest manifest = new GalleryManifest(s3);
+
+    // Unfiltered, unpaged listings come from the S3 gallery manifest unless GALLERY_MANIFEST=off.
+    // A manifest older than this is rebuilt from the Photos table as a safety net.
+    private static final boolean MANIFEST_ENABLED = !"off".equalsIgnoreCase(envOrDefault("GALLERY_MANIFEST", "on"));
+    private static final long MANIFEST_MAX_AGE_MILLIS =
+            Long.parseLong(envOrDefault("GALLERY_MANIFEST_MAX_AGE_SECONDS", "3600")) * 1000;
+
+    // Thumbnail fetches in flight at once, and how long a single fetch may take; replaced by the tests
+    static volatile int thumbnailConcurrency =
+            Integer.parseInt(envOrDefault("THUMBNAIL_CONCURRENCY", "16"));
+    static volatile Duration thumbnailTimeout =
+            Duration.ofMillis(Long.parseLong(envOrDefault("THUMBNAIL_TIMEOUT_MS", "3000")));
+
+    // "inline" embeds thumbnailData as Base64, "url" returns presigned thumbnailUrl links.
+    // Clients pick one with ?thumbnails=...; THUMBNAIL_MODE sets the default.
+    private static final String DEFAULT_THUMBNAIL_MODE = envOrDefault("THUMBNAIL_MODE", "inline");
+    private static final Duration THUMBNAIL_URL_TTL =
+            Duration.ofSeconds(Long.parseLong(envOrDefault("THUMBNAIL_URL_TTL_SECONDS", "900")));
+    private static final int MAX_CACHED_URLS = 10000;
+
+    // Presigned URLs are reused while they have at least half their lifetime left,
+    // so the browser sees the same URL across loads and can cache the image
+    private static final Map<String, PresignedUrl> presignedUrls = new ConcurrentHashMap<>();
+
+    // S3 ETags of thumbnails seen by this container. When they say the client's copy is
+    // current, a HEAD per thumbnail confirms it before the 304, instead of a full GET.
+    private static final Map<String, String> thumbnailVersions = new ConcurrentHashMap<>();
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaGetListOfObjects", LambdaGetListOfObjects::prime, LambdaGetListOfObjects::restore);
+    }
+
+    private static void prime() {
+        new LambdaGetListOfObjects().extractJSONArrayFromLambdaResponse(
+                "{\"statusCode\":200,\"body\":\"[{\\\"S3Key\\\":\\\"prime.png\\\"}]\"}");
+        // Endpoint resolution and request marshalling, no network call
+        s3.utilities().getUrl(GetUrlRequest.builder().bucket(THUMB_BUCKET).key("resized-prime.png").build());
+        Base64.getEncoder().encodeToString(new byte[16]);
+    }
+
+    // A fresh client after a SnapStart restore, so nothing from before the snapshot is reused
+    private static void restore() {
+        router.reset();
+        S3Client old = s3;
+        s3 = S3Client.builder().region(Region.AP_SOUTHEAST_1).build();
+        manifest = new GalleryManifest(s3);
+        old.close();
+    }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
         try {
-            // Invoke LambdaGetPhotosDB
-            String raw = lambda.invoke(InvokeRequest.builder()
-                    .functionName("LambdaGetPhotosDB")
-                    .payload(SdkBytes.fromUtf8String("{}"))
-                    .build())
-                    .payload().asUtf8String();
+            JSONObject paging = pagingParameters(request);
+            JSONObject page = paging.isEmpty() && MANIFEST_ENABLED
+                    ? manifestPage(request, context)
+                    : dbPage(paging);
+            JSONArray dbItems = page.getJSONArray("items");
 
-            // Unwrap response if it's { statusCode, body, isBase64Encoded, ... }
-            JSONArray dbItems = extractJSONArrayFromLambdaResponse(raw);
+            // The gallery ETag covers the DB page plus the version of every thumbnail
+            String dbDigest = paging + page.toString();
+            String ifNoneMatch = header(request, "If-None-Match");
 
-            // Attach thumbnails
             JSONArray result = new JSONArray();
-            for (int i = 0; i < dbItems.length(); i++) {
-                JSONObject item = dbItems.getJSONObject(i);
+            if ("url".equalsIgnoreCase(thumbnailMode(request))) {
+                // Signed locally, no S3 calls; the browser fetches thumbnails from S3 directly
+                List<String> urls = new ArrayList<>(dbItems.length());
+                for (int i = 0; i < dbItems.length(); i++) {
+                    urls.add(presignThumbnail(dbItems.getJSONObject(i).getString("S3Key")));
+                }
+                String eTag = galleryETag(dbDigest, "url", urls);
+                if (notModified(ifNoneMatch, eTag)) {
+                    return notModifiedResponse(eTag);
+                }
+                for (int i = 0; i < dbItems.length(); i++) {
+                    JSONObject item = dbItems.getJSONObject(i);
+                    String key = item.getString("S3Key");
+                    item.put("thumbnailUrl", urls.get(i));
+                    item.put("extension", "png");
+                    item.put("key", key);
+                    result.put(item);
+                }
+                return listResponse(request, result, page, paging, eTag);
+            }
 
-                // ✅ FIX 1: correct field name
-                String key = item.getString("S3Key");
+            // Attach thumbnails, fetched concurrently but kept in DB order
+            Semaphore permits = new Semaphore(thumbnailConcurrency);
 
-                // Pull resized thumb from S3: resized-<key>
-                try {
-                    byte[] bytes = s3.getObjectAsBytes(GetObjectRequest.builder()
-                            .bucket(THUMB_BUCKET)
-                            .key("resized-" + key)
-                            .build()).asByteArray();
+            List<String> knownVersions = knownThumbnailVersions(dbItems);
+            if (knownVersions != null && notModified(ifNoneMatch, galleryETag(dbDigest, "inline", knownVersions))) {
+                // What this container last saw may be out of date, so S3 has the final say
+                List<String> currentVersions = currentThumbnailVersions(dbItems, permits);
+                String eTag = currentVersions == null ? null : galleryETag(dbDigest, "inline", currentVersions);
+                if (eTag != null && notModified(ifNoneMatch, eTag)) {
+                    return notModifiedResponse(eTag);
+                }
+            }
+            List<Future<ResponseBytes<GetObjectResponse>>> thumbnails = new ArrayList<>(dbItems.length());
+            List<String> versions = new ArrayList<>(dbItems.length());
+
+            try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < dbItems.length(); i++) {
+                    // ✅ FIX 1: correct field name
+                    String key = dbItems.getJSONObject(i).getString("S3Key");
+                    thumbnails.add(pool.submit(() -> fetchThumbnail(key, permits)));
+                }
+
+                for (int i = 0; i < dbItems.length(); i++) {
+                    JSONObject item = dbItems.getJSONObject(i);
+                    String key = item.getString("S3Key");
 
                     // ✅ Match your HTML: obj.thumbnailData
-                    item.put("thumbnailData", Base64.getEncoder().encodeToString(bytes));
+                    ResponseBytes<GetObjectResponse> thumbnail = thumbnails.get(i).get();
+                    versions.add(thumbnail == null ? "" : thumbnail.response().eTag());
+                    item.put("thumbnailData", thumbnail == null
+                            ? "" : Base64.getEncoder().encodeToString(thumbnail.asByteArray()));
                     item.put("extension", "png"); // or "jpeg" if you store JPG thumbs
-                } catch (Exception e) {
-                    item.put("thumbnailData", "");
-                    item.put("extension", "png");
-                }
 
-                // Optional: also provide "key" for old UI
-                item.put("key", key);
+                    // Optional: also provide "key" for old UI
+                    item.put("key", key);
 
-                result.put(item);
+                    result.put(item);
+                }
             }
 
-            return new APIGatewayProxyResponseEvent()
-                    .withStatusCode(200)
-                    .withHeaders(Map.of(
-                            "Content-Type", "application/json"
-                    ))
-                    .withBody(result.toString());
+            String eTag = galleryETag(dbDigest, "inline", versions);
+            if (notModified(ifNoneMatch, eTag)) {
+                return notModifiedResponse(eTag);
+            }
+            return listResponse(request, result, page, paging, eTag);
 
         } catch (Exception e) {
             context.getLogger().log("ERROR: " + e.toString());
-            return new APIGatewayProxyResponseEvent()
-                    .withStatusCode(500)
-                    .withHeaders(Map.of(
-                            "Content-Type", "application/json"
-                    ))
-                    .withBody(new JSONObject().put("error", e.getMessage()).toString());
+            return ResponseBuilder.status(500)
+                    .json(new JSONObject().put("error", e.getMessage()).toString())
+                    .build(request);
+        }
+    }
+
+    // Invoke LambdaGetPhotosDB, passing paging and filter parameters through
+    private JSONObject dbPage(JSONObject paging) {
+        String dbPayload = paging.isEmpty()
+                ? "{}"
+                : new JSONObject().put("queryStringParameters", paging).toString();
+        String raw = router.invoke("LambdaGetPhotosDB", dbPayload);
+
+        // Unwrap response if it's { statusCode, body, isBase64Encoded, ... }
+        return extractPageFromLambdaResponse(raw);
+    }
+
+    // One S3 GET for the whole gallery; rebuilt from the DB when missing, stale or ?manifest=rebuild
+    private JSONObject manifestPage(APIGatewayProxyRequestEvent request, Context context) {
+        boolean forceRebuild = rebuildRequested(request, context);
+        try {
+            JSONObject current = forceRebuild ? null : manifest.read();
+            if (current != null
+                    && System.currentTimeMillis() - current.optLong("builtAt") < MANIFEST_MAX_AGE_MILLIS) {
+                return new JSONObject().put("items", current.getJSONArray("items"));
+            }
+        } catch (RuntimeException e) {
+            context.getLogger().log("Gallery manifest unreadable, using the DB: " + e);
+            return dbPage(new JSONObject());
+        }
+
+        // The last DB page read, served as is if the rebuild cannot be written
+        JSONObject[] page = new JSONObject[1];
+        try {
+            JSONObject rebuilt = manifest.rebuild(() -> {
+                page[0] = dbPage(new JSONObject());
+                return page[0].getJSONArray("items");
+            }, context.getLogger());
+            context.getLogger().log("Gallery manifest rebuilt, version " + rebuilt.getLong("version"));
+            return new JSONObject().put("items", rebuilt.getJSONArray("items"));
+        } catch (RuntimeException e) {
+            context.getLogger().log("Gallery manifest rebuild failed: " + e);
+            return page[0] != null ? page[0] : dbPage(new JSONObject());
+        }
+    }
+
+    // Only direct invocations (a schedule or an operator with lambda:InvokeFunction) may force a
+    // rebuild; requests through API Gateway or the function URL carry a requestContext
+    private static boolean rebuildRequested(APIGatewayProxyRequestEvent request, Context context) {
+        Map<String, String> query = request == null ? null : request.getQueryStringParameters();
+        if (query == null || !"rebuild".equalsIgnoreCase(query.get("manifest"))) {
+            return false;
+        }
+        if (request.getRequestContext() != null) {
+            context.getLogger().log("Ignoring manifest=rebuild from an HTTP request");
+            return false;
+        }
+        return true;
+    }
+
+    private static APIGatewayProxyResponseEvent listResponse(APIGatewayProxyRequestEvent request, JSONArray result,
+            JSONObject page, JSONObject paging, String eTag) {
+        // Filters alone do not page, so the shape follows what the DB Lambda answered
+        return ResponseBuilder.status(200)
+                .header("ETag", eTag)
+                .header("Cache-Control", "private, no-cache")
+                .json(paging.isEmpty() || !page.has("nextCursor")
+                        ? result.toString()
+                        : new JSONObject()
+                                .put("items", result)
+                                .put("nextCursor", page.get("nextCursor"))
+                                .toString())
+                .build(request);
+    }
+
+    private static APIGatewayProxyResponseEvent notModifiedResponse(String eTag) {
+        return ResponseBuilder.status(304)
+                .header("ETag", eTag)
+                .header("Cache-Control", "private, no-cache")
+                .build();
+    }
+
+    private static String galleryETag(String dbDigest, String mode, List<String> thumbnailVersions) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(mode.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(dbDigest.getBytes(StandardCharsets.UTF_8));
+            for (String version : thumbnailVersions) {
+                digest.update((byte) 0);
+                digest.update(version.getBytes(StandardCharsets.UTF_8));
+            }
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest()) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Thumbnail ETags in DB order as last seen here, or null when any of them is unknown
+    private static List<String> knownThumbnailVersions(JSONArray dbItems) {
+        List<String> versions = new ArrayList<>(dbItems.length());
+        for (int i = 0; i < dbItems.length(); i++) {
+            String version = thumbnailVersions.get(dbItems.getJSONObject(i).getString("S3Key"));
+            if (version == null) {
+                return null;
+            }
+            versions.add(version);
+        }
+        return versions;
+    }
+
+    // Thumbnail ETags in DB order from a HEAD each, or null when any of them fails
+    private static List<String> currentThumbnailVersions(JSONArray dbItems, Semaphore permits) throws Exception {
+        List<Future<String>> heads = new ArrayList<>(dbItems.length());
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < dbItems.length(); i++) {
+                String key = dbItems.getJSONObject(i).getString("S3Key");
+                heads.add(pool.submit(() -> headThumbnail(key, permits)));
+            }
+            List<String> versions = new ArrayList<>(dbItems.length());
+            for (Future<String> head : heads) {
+                String version = head.get();
+                if (version == null) {
+                    return null;
+                }
+                versions.add(version);
+            }
+            return versions;
+        }
+    }
+
+    // If-None-Match may list several tags, weak ones, or "*"
+    private static boolean notModified(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // API Gateway may pass header names in any case
+    private static String header(APIGatewayProxyRequestEvent request, String name) {
+        Map<String, String> headers = request == null ? null : request.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String thumbnailMode(APIGatewayProxyRequestEvent request) {
+        Map<String, String> query = request == null ? null : request.getQueryStringParameters();
+        String mode = query == null ? null : query.get("thumbnails");
+        return mode == null || mode.isEmpty() ? DEFAULT_THUMBNAIL_MODE : mode;
+    }
+
+    // Presigned GET for resized-<key>, cached for half its lifetime
+    private static String presignThumbnail(String key) {
+        long now = System.currentTimeMillis();
+        PresignedUrl cached = presignedUrls.get(key);
+        if (cached != null && cached.renewAt > now) {
+            return cached.url;
+        }
+
+        String url = presigner.presignGetObject(r -> r
+                .signatureDuration(THUMBNAIL_URL_TTL)
+                .getObjectRequest(GetObjectRequest.builder()
+                        .bucket(THUMB_BUCKET)
+                        .key("resized-" + key)
+                        .responseCacheControl("private, max-age=" + THUMBNAIL_URL_TTL.toSeconds())
+                        .build()))
+                .url().toString();
+
+        if (presignedUrls.size() >= MAX_CACHED_URLS) {
+            presignedUrls.clear();
+        }
+        presignedUrls.put(key, new PresignedUrl(url, now + THUMBNAIL_URL_TTL.toMillis() / 2));
+        return url;
+    }
+
+    // Pull resized thumb from S3: resized-<key>; null when missing or too slow
+    private static ResponseBytes<GetObjectResponse> fetchThumbnail(String key, Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            ResponseBytes<GetObjectResponse> thumbnail = s3.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(THUMB_BUCKET)
+                    .key("resized-" + key)
+                    .overrideConfiguration(o -> o.apiCallTimeout(thumbnailTimeout))
+                    .build());
+            rememberVersion(key, thumbnail.response().eTag());
+            return thumbnail;
+        } catch (Exception e) {
+            thumbnailVersions.remove(key);
+            return null;
+        } finally {
+            permits.release();
         }
     }
 
+    // ETag of resized-<key> without its bytes; null when missing or too slow
+    private static String headThumbnail(String key, Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            String eTag = s3.headObject(HeadObjectRequest.builder()
+                    .bucket(THUMB_BUCKET)
+                    .key("resized-" + key)
+                    .overrideConfiguration(o -> o.apiCallTimeout(thumbnailTimeout))
+                    .build()).eTag();
+            rememberVersion(key, eTag);
+            return eTag;
+        } catch (Exception e) {
+            thumbnailVersions.remove(key);
+            return null;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void rememberVersion(String key, String eTag) {
+        if (thumbnailVersions.size() >= MAX_CACHED_URLS) {
+            thumbnailVersions.clear();
+        }
+        thumbnailVersions.put(key, eTag);
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    private static JSONObject pagingParameters(APIGatewayProxyRequestEvent request) {
+        JSONObject paging = new JSONObject();
+        Map<String, String> query = request == null ? null : request.getQueryStringParameters();
+        if (query != null) {
+            // consistent=true lets a caller see its own upload, LambdaGetPhotosDB then reads the primary
+            for (String name : new String[] {"limit", "cursor", "order", "email", "q", "prefix", "consistent"}) {
+                if (query.get(name) != null) {
+                    paging.put(name, query.get(name));
+                }
+            }
+        }
+        return paging;
+    }
+
     private JSONArray extractJSONArrayFromLambdaResponse(String raw) {
+        return extractPageFromLambdaResponse(raw).getJSONArray("items");
+    }
+
+    // Returns { items, nextCursor? } whatever envelope the DB Lambda answered with
+    private JSONObject extractPageFromLambdaResponse(String raw) {
 
         String current = raw.trim();
 
@@ -115,7 +477,7 @@ public class LambdaGetListOfObjects implements RequestHandler<APIGatewayProxyReq
 
                     // 🔥 THIS IS THE IMPORTANT PART
                     if (bodyJson.has("items")) {
-                        return bodyJson.getJSONArray("items");
+                        return bodyJson;
                     }
 
                     // or body itself is the array wrapper
@@ -126,7 +488,7 @@ public class LambdaGetListOfObjects implements RequestHandler<APIGatewayProxyReq
 
             // Case 3: DB lambda returns { items: [...] } directly
             if (obj.has("items")) {
-                return obj.getJSONArray("items");
+                return obj;
             }
 
             break;
@@ -134,11 +496,19 @@ public class LambdaGetListOfObjects implements RequestHandler<APIGatewayProxyReq
 
         // Final attempt: raw array
         if (current.startsWith("[")) {
-            return new JSONArray(current);
+            return new JSONObject().put("items", new JSONArray(current));
         }
 
         throw new JSONException("Unable to extract JSONArray from response: " + raw);
     }
 
+    private static final class PresignedUrl {
+        private final String url;
+        private final long renewAt;
 
+        private PresignedUrl(String url, long renewAt) {
+            this.url = url;
+            this.renewAt = renewAt;
+        }
+    }
 }
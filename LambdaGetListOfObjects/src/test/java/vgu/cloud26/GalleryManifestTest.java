@@ -0,0 +1,127 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+public class GalleryManifestTest {
+
+    private static final String MANIFEST = "PUT " + GalleryManifest.KEY;
+
+    private LocalS3 s3;
+    private S3Client client;
+    private GalleryManifest manifest;
+
+    @Before
+    public void setUp() throws Exception {
+        s3 = new LocalS3();
+        client = s3.client();
+        manifest = new GalleryManifest(client);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        s3.close();
+    }
+
+    private static JSONArray rows(int... ids) {
+        JSONArray rows = new JSONArray();
+        for (int id : ids) {
+            rows.put(new JSONObject().put("ID", id).put("S3Key", "photo" + id + ".png")
+                    .put("Description", "d").put("Email", "owner@example.com"));
+        }
+        return rows;
+    }
+
+    private static List<Long> ids(JSONObject manifest) {
+        List<Long> ids = new ArrayList<>();
+        JSONArray items = manifest.getJSONArray("items");
+        for (int i = 0; i < items.length(); i++) {
+            ids.add(items.getJSONObject(i).getLong("ID"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void rebuildWritesEveryRowWithItsId() {
+        JSONObject rebuilt = manifest.rebuild(() -> rows(1, 2), TestContext.LOGGER);
+
+        assertEquals(1, rebuilt.getLong("version"));
+        assertEquals(List.of(1L, 2L), ids(manifest.read()));
+        assertEquals("resized-photo2.png",
+                manifest.read().getJSONArray("items").getJSONObject(1).getString("thumbnailKey"));
+    }
+
+    @Test
+    public void rebuildRereadsTheTableWhenAPatchLandsFirst() {
+        manifest.rebuild(() -> rows(1), TestContext.LOGGER);
+        GalleryManifest other = new GalleryManifest(client);
+        AtomicInteger reads = new AtomicInteger();
+
+        // Another container adds photo 2 after this rebuild read the ETag and before it writes
+        JSONObject rebuilt = manifest.rebuild(() -> {
+            if (reads.incrementAndGet() == 1) {
+                assertTrue(other.add(GalleryManifest.item(2, "photo2.png", "d", "owner@example.com"),
+                        TestContext.LOGGER));
+                return rows(1);
+            }
+            return rows(1, 2);
+        }, TestContext.LOGGER);
+
+        assertEquals(2, reads.get());
+        assertEquals(List.of(1L, 2L), ids(manifest.read()));
+        // 1 from the first rebuild, 2 from the patch, 3 from this rebuild
+        assertEquals(3, rebuilt.getLong("version"));
+    }
+
+    @Test
+    public void rebuildDoesNotOverwriteAManifestCreatedMeanwhile() {
+        AtomicInteger reads = new AtomicInteger();
+
+        JSONObject rebuilt = manifest.rebuild(() -> {
+            if (reads.incrementAndGet() == 1) {
+                new GalleryManifest(client).rebuild(() -> rows(1, 2, 3), TestContext.LOGGER);
+            }
+            return rows(1, 2, 3);
+        }, TestContext.LOGGER);
+
+        assertEquals(2, reads.get());
+        assertEquals(2, rebuilt.getLong("version"));
+        assertEquals(3, s3.requests().stream().filter(MANIFEST::equals).count());
+    }
+
+    @Test
+    public void addKeepsItemsInIdOrder() {
+        manifest.rebuild(() -> rows(1, 5), TestContext.LOGGER);
+
+        manifest.add(GalleryManifest.item(7, "photo7.png", "d", "owner@example.com"), TestContext.LOGGER);
+        // A slower upload with a lower ID finishes last
+        manifest.add(GalleryManifest.item(3, "photo3.png", "d", "owner@example.com"), TestContext.LOGGER);
+
+        assertEquals(List.of(1L, 3L, 5L, 7L), ids(manifest.read()));
+    }
+
+    @Test
+    public void invalidateLeavesNothingToPatch() {
+        manifest.rebuild(() -> rows(1), TestContext.LOGGER);
+
+        manifest.invalidate(TestContext.LOGGER);
+
+        assertNull(manifest.read());
+        assertFalse(manifest.remove("photo1.png", TestContext.LOGGER));
+    }
+}
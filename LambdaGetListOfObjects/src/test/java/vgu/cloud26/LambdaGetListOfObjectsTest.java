@@ -0,0 +1,320 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToLongFunction;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.lambda.LambdaClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+public class LambdaGetListOfObjectsTest {
+
+    private static final String THUMBS = "resized-bucket-vts253";
+
+    private LocalS3 s3;
+    private LocalLambda lambda;
+    private LambdaClient lambdaClient;
+    private S3Client originalS3;
+    private InvocationRouter originalRouter;
+    private GalleryManifest originalManifest;
+    private int originalConcurrency;
+    private Duration originalTimeout;
+    private final LambdaGetListOfObjects handler = new LambdaGetListOfObjects();
+
+    @Before
+    public void setUp() throws Exception {
+        s3 = new LocalS3();
+        lambda = new LocalLambda();
+        lambdaClient = lambda.client();
+        originalS3 = LambdaGetListOfObjects.s3;
+        originalRouter = LambdaGetListOfObjects.router;
+        originalManifest = LambdaGetListOfObjects.manifest;
+        originalConcurrency = LambdaGetListOfObjects.thumbnailConcurrency;
+        originalTimeout = LambdaGetListOfObjects.thumbnailTimeout;
+        LambdaGetListOfObjects.s3 = s3.client();
+        LambdaGetListOfObjects.router = new InvocationRouter(lambdaClient);
+        LambdaGetListOfObjects.manifest = new GalleryManifest(LambdaGetListOfObjects.s3);
+    }
+
+    @After
+    public void tearDown() {
+        LambdaGetListOfObjects.s3.close();
+        LambdaGetListOfObjects.s3 = originalS3;
+        LambdaGetListOfObjects.router = originalRouter;
+        LambdaGetListOfObjects.manifest = originalManifest;
+        LambdaGetListOfObjects.thumbnailConcurrency = originalConcurrency;
+        LambdaGetListOfObjects.thumbnailTimeout = originalTimeout;
+        lambdaClient.close();
+        lambda.close();
+        s3.close();
+    }
+
+    // LambdaGetPhotosDB answering with one page of the given keys
+    private void photos(String... keys) {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < keys.length; i++) {
+            items.put(new JSONObject().put("ID", i + 1).put("S3Key", keys[i]).put("Description", "d")
+                    .put("Email", "owner@example.com"));
+        }
+        String body = new JSONObject().put("items", items).put("nextCursor", JSONObject.NULL).toString();
+        lambda.register("LambdaGetPhotosDB",
+                payload -> new JSONObject().put("statusCode", 200).put("body", body).toString());
+    }
+
+    private APIGatewayProxyResponseEvent list(Map<String, String> headers) {
+        return handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withQueryStringParameters(Map.of("limit", "10"))
+                .withHeaders(headers), new TestContext());
+    }
+
+    @Test
+    public void repeatVisitIsRevalidatedWithHeadsOnly() {
+        photos("a.png", "b.png");
+        s3.put(THUMBS, "resized-a.png", new byte[] {1}, "image/png");
+        s3.put(THUMBS, "resized-b.png", new byte[] {2}, "image/png");
+
+        APIGatewayProxyResponseEvent first = list(null);
+        assertEquals(200, (int) first.getStatusCode());
+        String eTag = first.getHeaders().get("ETag");
+
+        s3.requests().clear();
+        APIGatewayProxyResponseEvent second = list(Map.of("If-None-Match", eTag));
+
+        assertEquals(304, (int) second.getStatusCode());
+        assertEquals(eTag, second.getHeaders().get("ETag"));
+        assertTrue(s3.requests().stream().allMatch(r -> r.startsWith("HEAD ")));
+        assertEquals(2, s3.requests().size());
+    }
+
+    @Test
+    public void changedThumbnailIsNotAnsweredFromTheRememberedVersion() {
+        photos("a.png", "b.png");
+        s3.put(THUMBS, "resized-a.png", new byte[] {1}, "image/png");
+        s3.put(THUMBS, "resized-b.png", new byte[] {2}, "image/png");
+        String eTag = list(null).getHeaders().get("ETag");
+
+        // Replaced by another container or the resizer since this one last looked
+        s3.put(THUMBS, "resized-b.png", new byte[] {3}, "image/png");
+        APIGatewayProxyResponseEvent response = list(Map.of("If-None-Match", eTag));
+
+        assertEquals(200, (int) response.getStatusCode());
+        assertNotEquals(eTag, response.getHeaders().get("ETag"));
+        assertEquals(2, new JSONObject(response.getBody()).getJSONArray("items").length());
+    }
+
+    private APIGatewayProxyResponseEvent rebuild(boolean overHttp) {
+        APIGatewayProxyRequestEvent request = new APIGatewayProxyRequestEvent()
+                .withQueryStringParameters(Map.of("manifest", "rebuild"));
+        if (overHttp) {
+            request.setRequestContext(new APIGatewayProxyRequestEvent.ProxyRequestContext());
+        }
+        return handler.handleRequest(request, new TestContext());
+    }
+
+    private static String keys(APIGatewayProxyResponseEvent response) {
+        JSONArray items = new JSONArray(response.getBody());
+        StringBuilder keys = new StringBuilder();
+        for (int i = 0; i < items.length(); i++) {
+            keys.append(i == 0 ? "" : ",").append(items.getJSONObject(i).getString("S3Key"));
+        }
+        return keys.toString();
+    }
+
+    @Test
+    public void onlyDirectInvocationsCanForceAManifestRebuild() {
+        s3.put(THUMBS, "resized-a.png", new byte[] {1}, "image/png");
+        s3.put(THUMBS, "resized-b.png", new byte[] {2}, "image/png");
+        LambdaGetListOfObjects.manifest.rebuild(() -> new JSONArray()
+                .put(new JSONObject().put("ID", 1).put("S3Key", "a.png")), TestContext.LOGGER);
+        photos("a.png", "b.png");
+
+        assertEquals("a.png", keys(rebuild(true)));
+        assertEquals(1, LambdaGetListOfObjects.manifest.read().getLong("version"));
+
+        assertEquals("a.png,b.png", keys(rebuild(false)));
+        JSONObject rebuilt = LambdaGetListOfObjects.manifest.read();
+        assertEquals(2, rebuilt.getLong("version"));
+        assertEquals(2, rebuilt.getJSONArray("items").getJSONObject(1).getLong("ID"));
+    }
+
+    @Test
+    public void consistentReadsAreForwardedToThePhotosDb() {
+        AtomicReference<String> sent = new AtomicReference<>();
+        lambda.register("LambdaGetPhotosDB", payload -> {
+            sent.set(payload);
+            return new JSONObject().put("statusCode", 200).put("body", "[]").toString();
+        });
+
+        handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withQueryStringParameters(Map.of("email", "owner@example.com", "consistent", "true")),
+                new TestContext());
+
+        JSONObject query = new JSONObject(sent.get()).getJSONObject("queryStringParameters");
+        assertEquals("true", query.getString("consistent"));
+        assertEquals("owner@example.com", query.getString("email"));
+    }
+
+    // Delays every thumbnail GET by the given number of milliseconds for its key
+    private void delayThumbnails(ToLongFunction<String> millis) {
+        s3.beforeRequest(request -> {
+            if (request.startsWith("GET resized-")) {
+                sleep(millis.applyAsLong(request.substring("GET resized-".length())));
+            }
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String[] thumbnails(int count) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = String.format("p%04d.png", i);
+        }
+        return keys;
+    }
+
+    private static JSONArray items(APIGatewayProxyResponseEvent response) {
+        return new JSONObject(response.getBody()).getJSONArray("items");
+    }
+
+    @Test
+    public void thumbnailsKeepTheDbOrderWhateverOrderTheyArriveIn() {
+        String[] keys = thumbnails(8);
+        photos(keys);
+        for (int i = 0; i < keys.length; i++) {
+            s3.put(THUMBS, "resized-" + keys[i], new byte[] {(byte) i}, "image/png");
+        }
+        // The first photo's thumbnail arrives last
+        delayThumbnails(key -> key.equals(keys[0]) ? 300 : 0);
+
+        JSONArray items = items(list(null));
+
+        assertEquals(keys.length, items.length());
+        for (int i = 0; i < keys.length; i++) {
+            JSONObject item = items.getJSONObject(i);
+            assertEquals(keys[i], item.getString("S3Key"));
+            assertEquals(i + 1, item.getInt("ID"));
+            assertEquals(Base64.getEncoder().encodeToString(new byte[] {(byte) i}), item.getString("thumbnailData"));
+        }
+    }
+
+    @Test
+    public void thumbnailFetchesStayWithinTheConcurrencyLimit() {
+        LambdaGetListOfObjects.thumbnailConcurrency = 3;
+        String[] keys = thumbnails(12);
+        photos(keys);
+        for (String key : keys) {
+            s3.put(THUMBS, "resized-" + key, new byte[] {1}, "image/png");
+        }
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        delayThumbnails(key -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(50);
+            inFlight.decrementAndGet();
+            return 0;
+        });
+
+        assertEquals(keys.length, items(list(null)).length());
+        assertTrue("peak " + peak.get(), peak.get() <= 3);
+        assertTrue("peak " + peak.get(), peak.get() > 1);
+    }
+
+    @Test
+    public void slowThumbnailTimesOutWithoutHoldingUpTheRest() {
+        LambdaGetListOfObjects.thumbnailTimeout = Duration.ofMillis(200);
+        photos("a.png", "slow.png", "c.png");
+        for (String key : new String[] {"a.png", "slow.png", "c.png"}) {
+            s3.put(THUMBS, "resized-" + key, new byte[] {1}, "image/png");
+        }
+        delayThumbnails(key -> key.equals("slow.png") ? 3000 : 0);
+
+        long start = System.nanoTime();
+        JSONArray items = items(list(null));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(millis + " ms", millis < 2000);
+        assertEquals("", items.getJSONObject(1).getString("thumbnailData"));
+        assertNotEquals("", items.getJSONObject(0).getString("thumbnailData"));
+        assertNotEquals("", items.getJSONObject(2).getString("thumbnailData"));
+    }
+
+    @Test
+    public void missingThumbnailDoesNotStallTheOthers() {
+        String[] keys = thumbnails(6);
+        photos(keys);
+        // No thumbnail for the third photo, e.g. the resizer has not finished yet
+        for (int i = 0; i < keys.length; i++) {
+            if (i != 2) {
+                s3.put(THUMBS, "resized-" + keys[i], new byte[] {1}, "image/png");
+            }
+        }
+        delayThumbnails(key -> 100);
+
+        APIGatewayProxyResponseEvent response = list(null);
+        JSONArray items = items(response);
+
+        assertEquals(200, (int) response.getStatusCode());
+        assertEquals(keys.length, items.length());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i == 2, items.getJSONObject(i).getString("thumbnailData").isEmpty());
+        }
+        // A 404 is not retried, so every thumbnail is asked for exactly once
+        assertEquals(keys.length, s3.requests().stream().filter(r -> r.startsWith("GET resized-")).count());
+    }
+
+    // Prints the listing time for 10, 100 and 1000 photos with 10 ms per thumbnail GET,
+    // fetched with the default concurrency and one at a time
+    @Test
+    public void listingTimeGrowsWithPhotosOverConcurrency() {
+        delayThumbnails(key -> 10);
+        StringBuilder report = new StringBuilder("Listing with 10 ms per thumbnail:");
+        for (int count : new int[] {10, 100, 1000}) {
+            String[] keys = thumbnails(count);
+            photos(keys);
+            for (String key : keys) {
+                s3.put(THUMBS, "resized-" + key, new byte[256], "image/png");
+            }
+            LambdaGetListOfObjects.thumbnailConcurrency = originalConcurrency;
+            long concurrent = timeListing(count);
+            report.append(' ').append(count).append(" photos ").append(concurrent).append(" ms");
+            if (count <= 100) {
+                LambdaGetListOfObjects.thumbnailConcurrency = 1;
+                report.append(" (").append(timeListing(count)).append(" ms one at a time)");
+            }
+            report.append(',');
+        }
+        System.out.println(report.substring(0, report.length() - 1));
+    }
+
+    private long timeListing(int count) {
+        long start = System.nanoTime();
+        APIGatewayProxyResponseEvent response = handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withQueryStringParameters(Map.of("limit", String.valueOf(count))), new TestContext());
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(count, items(response).length());
+        return millis;
+    }
+}
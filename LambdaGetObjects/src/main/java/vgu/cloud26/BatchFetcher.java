@@ -0,0 +1,201 @@
+package vgu.cloud26;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Fetches several objects for one LambdaGetObjects call ({"keys": [...]}).
+ *
+ * All keys are looked up with HeadObject first, then fetched concurrently,
+ * with at most BATCH_CONCURRENCY (default 8) S3 calls in flight. Objects are
+ * admitted in request order until BATCH_MAX_BYTES (default 4 MB, which stays
+ * under the 6 MB response limit once Base64-encoded) is used up; the rest get
+ * status "deferred" and are also listed under "truncated" so the caller can
+ * ask for them again. Each GET is pinned to the ETag its HEAD saw; an object
+ * replaced in between is looked up again, and reported as 409 if it keeps
+ * changing. Every key gets its own entry in "results", with either the data
+ * or an error.
+ */
+public final class BatchFetcher {
+
+    static final int MAX_KEYS = Integer.parseInt(envOrDefault("BATCH_MAX_KEYS", "100"));
+    private static final int CONCURRENCY = Integer.parseInt(envOrDefault("BATCH_CONCURRENCY", "8"));
+    // GETs per key when the object keeps being replaced between lookup and fetch
+    private static final int MAX_ATTEMPTS = 3;
+    static final long MAX_BYTES = Long.parseLong(envOrDefault("BATCH_MAX_BYTES", String.valueOf(4 * 1024 * 1024)));
+
+    // An entry that could not be fetched, with the status to report for it
+    private static final class EntryFailure extends RuntimeException {
+        final Object status;
+
+        EntryFailure(Object status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private BatchFetcher() {
+    }
+
+    public static JSONObject fetch(List<String> keys) throws InterruptedException {
+        Semaphore permits = new Semaphore(CONCURRENCY);
+        JSONArray results = new JSONArray();
+        JSONArray truncated = new JSONArray();
+        long used = 0;
+
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<HeadObjectResponse>> heads = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                heads.add(pool.submit(() -> withPermit(permits, () -> head(key))));
+            }
+
+            // Decide what fits in the budget, keeping the caller's order
+            List<Future<ResponseBytes<GetObjectResponse>>> bodies = new ArrayList<>(keys.size());
+            List<JSONObject> entries = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                JSONObject entry = new JSONObject().put("key", key);
+                entries.add(entry);
+                bodies.add(null);
+
+                HeadObjectResponse head;
+                try {
+                    head = heads.get(i).get();
+                } catch (ExecutionException e) {
+                    entry.put("status", 500).put("error", String.valueOf(e.getCause().getMessage()));
+                    continue;
+                }
+                if (head == null) {
+                    entry.put("status", 404).put("error", "Not found");
+                    continue;
+                }
+
+                long size = head.contentLength();
+                entry.put("size", size)
+                        .put("contentType", LambdaGetObjects.mimeType(key, head.contentType()))
+                        .put("eTag", head.eTag());
+                if (size >= LambdaGetObjects.MAX_SIZE) {
+                    entry.put("status", 413).put("error", "Object too large");
+                    continue;
+                }
+                if (used + size > MAX_BYTES) {
+                    // Not an error: the key fits in a later call
+                    entry.put("status", "deferred").put("error", "Byte budget exhausted, fetch again");
+                    truncated.put(key);
+                    continue;
+                }
+                used += size;
+                String eTag = head.eTag();
+                bodies.set(i, pool.submit(() -> withPermit(permits, () -> get(key, eTag, size))));
+            }
+
+            for (int i = 0; i < keys.size(); i++) {
+                JSONObject entry = entries.get(i);
+                if (bodies.get(i) != null) {
+                    try {
+                        // From the GET, which may have found a newer version than the HEAD
+                        ResponseBytes<GetObjectResponse> body = bodies.get(i).get();
+                        entry.put("status", 200)
+                                .put("size", body.asByteArray().length)
+                                .put("eTag", body.response().eTag())
+                                .put("data", Base64.getEncoder().encodeToString(body.asByteArray()));
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof EntryFailure failure) {
+                            entry.put("status", failure.status).put("error", failure.getMessage());
+                            if ("deferred".equals(failure.status)) {
+                                truncated.put(entry.getString("key"));
+                            }
+                        } else {
+                            entry.put("status", 500).put("error", String.valueOf(e.getCause().getMessage()));
+                        }
+                    }
+                }
+                results.put(entry);
+            }
+        }
+
+        return new JSONObject()
+                .put("results", results)
+                .put("truncated", truncated)
+                .put("bytes", used);
+    }
+
+    // The version the HEAD saw; when it was replaced since, the new one if it still fits what was admitted
+    private static ResponseBytes<GetObjectResponse> get(String key, String eTag, long admitted) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return LambdaGetObjects.s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                                .bucket(LambdaGetObjects.BUCKET_NAME)
+                                .key(key)
+                                .ifMatch(eTag)
+                                .build());
+            } catch (S3Exception e) {
+                if (e.statusCode() == 404) {
+                    throw new EntryFailure(404, "Not found");
+                }
+                if (e.statusCode() != 412) {
+                    throw e;
+                }
+            }
+            if (attempt == MAX_ATTEMPTS) {
+                throw new EntryFailure(409, "Object kept changing, fetch again");
+            }
+            HeadObjectResponse head = head(key);
+            if (head == null) {
+                throw new EntryFailure(404, "Not found");
+            }
+            if (head.contentLength() > admitted) {
+                // The budget was spent on the old size
+                throw new EntryFailure("deferred", "Object changed size, fetch again");
+            }
+            eTag = head.eTag();
+        }
+    }
+
+    // Null when the key does not exist
+    private static HeadObjectResponse head(String key) {
+        try {
+            return LambdaGetObjects.s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(LambdaGetObjects.BUCKET_NAME)
+                    .key(key)
+                    .build());
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static <T> T withPermit(Semaphore permits, Supplier<T> call)
+            throws InterruptedException {
+        permits.acquire();
+        try {
+            return call.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
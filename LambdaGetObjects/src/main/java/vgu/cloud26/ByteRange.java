@@ -0,0 +1,82 @@
+package vgu.cloud26;
+
+/**
+ * A single HTTP byte range ("Range: bytes=start-end") resolved against the
+ * object size.
+ *
+ * Supports "bytes=a-b", "bytes=a-" and the suffix form "bytes=-n". Multiple
+ * ranges or other units are ignored and the whole object is served, which
+ * RFC 9110 allows. A range that starts past the end of the object raises
+ * IllegalArgumentException, which the handler turns into 416.
+ */
+public final class ByteRange {
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    // Null when there is no usable Range header
+    public static ByteRange parse(String header, long size) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.trim();
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        long start;
+        long end;
+        try {
+            if (first.isEmpty()) {
+                // Suffix range: the last n bytes
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    throw new IllegalArgumentException("Range not satisfiable");
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (!last.isEmpty() && Long.parseLong(last) < start) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (start < 0 || start >= size) {
+            throw new IllegalArgumentException("Range not satisfiable");
+        }
+        return new ByteRange(start, end);
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    // Value for the S3 GetObject range parameter
+    public String toHeader() {
+        return "bytes=" + start + "-" + end;
+    }
+
+    public String contentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+}
@@ -1,8 +1,12 @@
 package vgu.cloud26;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import com.amazonaws.services.lambda.runtime.Context;
@@ -15,9 +19,10 @@ import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
-import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
-import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
-import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.GetUrlRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 // public class LambdaGetObject implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
@@ -71,77 +76,237 @@ import software.amazon.awssdk.services.s3.model.S3Object;
 
 public class LambdaGetObjects implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
+    // Shared with the streaming variant, LambdaGetObjectsStream
+    static final String BUCKET_NAME = "bucket-vts253";
+    static volatile S3Client s3Client = newS3Client();
+
+    // 1 MB is equal to 1024 kilobytes (KB), and 1 KB is equal to 1024 bytes.
+    // MAX_OBJECT_BYTES overrides the 10 MB default
+    static final long MAX_SIZE = Long.parseLong(envOrDefault("MAX_OBJECT_BYTES", String.valueOf(10 * 1024 * 1024)));
+
+    // Sent with every object so browsers revalidate with If-None-Match
+    static final String CACHE_CONTROL = envOrDefault("OBJECT_CACHE_CONTROL", "private, max-age=300");
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaGetObjects", LambdaGetObjects::prime, LambdaGetObjects::restore);
+    }
+
+    private static void prime() {
+        s3Client.utilities().getUrl(GetUrlRequest.builder().bucket(BUCKET_NAME).key("prime.png").build());
+        GetObjectRequest.builder().bucket(BUCKET_NAME).key("prime.png").range("bytes=0-15").build();
+        HeadObjectRequest.builder().bucket(BUCKET_NAME).key("prime.png").build();
+        ByteRange.parse("bytes=0-15", 16);
+        Base64.getEncoder().encodeToString(new byte[16]);
+        new JSONObject("{\"key\":\"prime.png\"}").getString("key");
+    }
+
+    // A fresh client after a SnapStart restore, so nothing from before the snapshot is reused
+    private static void restore() {
+        S3Client old = s3Client;
+        s3Client = newS3Client();
+        old.close();
+    }
+
+    private static S3Client newS3Client() {
+        return S3Client.builder()
+                .region(Region.AP_SOUTHEAST_1)
+                .build();
+    }
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
 
         String requestBody = request.getBody();
         JSONObject bodyJSON = new JSONObject(requestBody);
+        if (bodyJSON.has("keys")) {
+            return batchResponse(request, bodyJSON.getJSONArray("keys"), context);
+        }
         String key = bodyJSON.getString("key");
         //Map<String, String> params = request.getQueryStringParameters();
         //String key = params.get("key");
 
-        String bucketName = "bucket-vts253";
-        S3Client s3Client = S3Client.builder()
-                .region(Region.AP_SOUTHEAST_1)
-                .build();
+        // One HEAD answers existence, size and type without listing the bucket
+        HeadObjectResponse head;
+        try {
+            head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(BUCKET_NAME)
+                    .key(key)
+                    .build());
+        } catch (S3Exception ex) {
+            if (ex.statusCode() == 404) {
+                return emptyResponse(404, new HashMap<>());
+            }
+            throw ex;
+        }
 
-        ListObjectsRequest listObjects = ListObjectsRequest
-                .builder()
-                .bucket(bucketName)
-                .build();
+        long objectSize = head.contentLength();
+        String mimeType = mimeType(key, head.contentType());
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", mimeType);
+        headers.put("Accept-Ranges", "bytes");
+        headers.put("ETag", head.eTag());
+        headers.put("Cache-Control", CACHE_CONTROL);
+
+        // The client already has this version
+        if (notModified(header(request, "If-None-Match"), head.eTag())) {
+            headers.remove("Content-Type");
+            return emptyResponse(304, headers);
+        }
+
+        ByteRange range;
+        try {
+            range = ByteRange.parse(header(request, "Range"), objectSize);
+        } catch (IllegalArgumentException ex) {
+            headers.put("Content-Range", "bytes */" + objectSize);
+            return emptyResponse(416, headers);
+        }
+
+        // The size limit applies to what is returned, so big objects can still be read in slices
+        long length = range == null ? objectSize : range.length();
+        if (length >= MAX_SIZE) {
+            context.getLogger().log("Object too large to return: " + key + " (" + length + " bytes)");
+            return ResponseBuilder.status(413)
+                    .headers(tooLargeHeaders())
+                    .json(tooLargeBody(length).toString())
+                    .build(request);
+        }
 
-        ListObjectsResponse res = s3Client.listObjects(listObjects);
-        List<S3Object> objects = res.contents();
-
-         // 1 MB is equal to 1024 kilobytes (KB), and 1 KB is equal to 1024 bytes.
-        int maxSize = 10 * 1024 * 1024;
-        Boolean found = false;
-        Boolean validSize = false;
-        String mimeType = "application/octet-stream";
-        for (S3Object object : objects) {
-            if (object.key().equals(key)) {
-                found = true;
-                int objectSize = Math.toIntExact(object.size());
-                if (objectSize < maxSize){
-                    validSize = true ;
-                }
-                mimeType = key.split("\\.")[1];
-                if (mimeType.equals("png")){
-                    mimeType = "image/png";
-                } else if (mimeType.equals("html")){
-                    mimeType = "text/html";
-                }
-                break;
+        GetObjectRequest.Builder s3Request = GetObjectRequest.builder()
+                .bucket(BUCKET_NAME)
+                .key(key)
+                // Fail rather than mix bytes if the object changes after the HEAD
+                .ifMatch(head.eTag());
+        if (range != null) {
+            s3Request.range(range.toHeader());
+            headers.put("Content-Range", range.contentRange(objectSize));
+        }
+
+        byte[] buffer;
+        try (ResponseInputStream<GetObjectResponse> s3Response
+                = s3Client.getObject(s3Request.build())) {
+
+            buffer = s3Response.readAllBytes();
+            if (buffer.length != length) {
+                throw new IOException("S3 ended the object after " + buffer.length + " of " + length + " bytes");
             }
+        } catch (IOException ex) {
+            // A short body must not go out under the object's ETag, or caches keep it
+            context.getLogger().log("IOException reading " + key + ": " + ex);
+            return ResponseBuilder.status(502)
+                    .json(new JSONObject().put("error", "Could not read the object from S3").toString())
+                    .build(request);
+        }
+
+        // Text types such as index.html are compressed when the client accepts it
+        return ResponseBuilder.status(range == null ? 200 : 206)
+                .headers(headers)
+                .binary(buffer)
+                .build(request);
+    }
+
+    // Several keys in one call, see BatchFetcher
+    private static APIGatewayProxyResponseEvent batchResponse(APIGatewayProxyRequestEvent request, JSONArray keys,
+            Context context) {
+        if (keys.length() > BatchFetcher.MAX_KEYS) {
+            return ResponseBuilder.status(400)
+                    .json(new JSONObject().put("error", "At most " + BatchFetcher.MAX_KEYS + " keys per call").toString())
+                    .build(request);
         }
-        String encodedString = "";
-        if (found && validSize) {
-            GetObjectRequest s3Request
-                    = GetObjectRequest.builder()
-                            .bucket(bucketName)
-                            .key(key)
-                            .build();
-           byte[] buffer = new byte[10 * 1024 * 1024]; // 10Mb
-            try (ResponseInputStream<GetObjectResponse> s3Response
-                    = s3Client.getObject(s3Request)) {
+        List<String> list = new ArrayList<>(keys.length());
+        for (int i = 0; i < keys.length(); i++) {
+            list.add(keys.getString(i));
+        }
+        try {
+            JSONObject result = BatchFetcher.fetch(list);
+            context.getLogger().log("Batch of " + list.size() + " keys, " + result.getLong("bytes")
+                    + " bytes, truncated " + result.getJSONArray("truncated").length());
+            return ResponseBuilder.status(200)
+                    .json(result.toString())
+                    .build(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseBuilder.status(500)
+                    .json(new JSONObject().put("error", "Interrupted").toString())
+                    .build(request);
+        }
+    }
+
+    private static APIGatewayProxyResponseEvent emptyResponse(int statusCode, Map<String, String> headers) {
+        return ResponseBuilder.status(statusCode)
+                .headers(headers)
+                .binary(new byte[0])
+                .build();
+    }
 
-                buffer = s3Response.readAllBytes();
+    // Not the object, so there is no ETag and nothing for a cache to keep
+    static Map<String, String> tooLargeHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("Cache-Control", "no-store");
+        headers.put("Accept-Ranges", "bytes");
+        return headers;
+    }
 
-            } catch (IOException ex) {
-                context.getLogger().log("IOException: " + ex);
+    static JSONObject tooLargeBody(long length) {
+        return new JSONObject()
+                .put("error", "Object is " + length + " bytes, ask for a Range under " + MAX_SIZE + " bytes");
+    }
 
+    // If-None-Match may list several tags, weak ones, or "*"
+    static boolean notModified(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || eTag == null) {
+            return false;
+        }
+        String current = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(current)) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            encodedString = Base64.getEncoder().encodeToString(buffer);
+    // API Gateway may pass header names in any case
+    static String header(APIGatewayProxyRequestEvent request, String name) {
+        Map<String, String> headers = request.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
 
+    // Prefer the stored Content-Type, fall back to the file extension
+    static String mimeType(String key, String storedType) {
+        if (storedType != null && !storedType.isEmpty()
+                && !storedType.equals("application/octet-stream")
+                && !storedType.equals("binary/octet-stream")) {
+            return storedType;
         }
-        APIGatewayProxyResponseEvent response
-                = new APIGatewayProxyResponseEvent();
-        response.setStatusCode(200);
-        response.setBody(encodedString);
-        response.withIsBase64Encoded(true);
-        response.setHeaders(java.util.Collections.singletonMap("Content-Type", mimeType));
-        return response;
+        String extension = key.contains(".") ? key.substring(key.lastIndexOf('.') + 1).toLowerCase() : "";
+        if (extension.equals("png")) {
+            return "image/png";
+        } else if (extension.equals("jpg") || extension.equals("jpeg")) {
+            return "image/jpeg";
+        } else if (extension.equals("html")) {
+            return "text/html";
+        }
+        return "application/octet-stream";
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
     }
 
-}
\ No newline at end of file
+}
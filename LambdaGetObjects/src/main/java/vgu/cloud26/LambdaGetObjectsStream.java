@@ -0,0 +1,202 @@
+package vgu.cloud26;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Streaming variant of LambdaGetObjects.
+ *
+ * The S3 object is Base64-encoded chunk by chunk straight into the API
+ * Gateway proxy response instead of being read into a byte[] and a String
+ * first, so the handler's peak memory is one chunk no matter how big the
+ * object is. Takes the same request (body {"key": ...}, optional Range and
+ * If-None-Match headers) and gives the same response as LambdaGetObjects.
+ *
+ * The Java managed runtime does not support Lambda response streaming: it
+ * collects whatever the handler writes and returns it as one buffered
+ * payload, capped at 6 MB. This variant therefore keeps the proxy-response
+ * format that API Gateway and BUFFERED function URLs expect, and
+ * MAX_OBJECT_BYTES must stay below about 4.5 MB, which Base64-encodes to
+ * the 6 MB limit. If S3 fails after the body has started, the invocation
+ * fails instead of returning a cut-off object.
+ */
+public class LambdaGetObjectsStream implements RequestStreamHandler {
+
+    // A multiple of 3 so every chunk encodes to whole Base64 groups
+    private static final int CHUNK_SIZE = 48 * 1024;
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        LambdaLogger logger = context.getLogger();
+        APIGatewayProxyRequestEvent request = toRequest(input);
+
+        String key;
+        try {
+            key = new JSONObject(request.getBody()).getString("key");
+        } catch (RuntimeException ex) {
+            writeJson(output, 400, Map.of("Content-Type", "application/json"),
+                    new JSONObject().put("error", "key is required"));
+            return;
+        }
+
+        HeadObjectResponse head;
+        try {
+            head = LambdaGetObjects.s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(LambdaGetObjects.BUCKET_NAME)
+                    .key(key)
+                    .build());
+        } catch (S3Exception ex) {
+            if (ex.statusCode() != 404) {
+                throw ex;
+            }
+            writeEmpty(output, 404, new HashMap<>());
+            return;
+        }
+
+        long objectSize = head.contentLength();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", LambdaGetObjects.mimeType(key, head.contentType()));
+        headers.put("Accept-Ranges", "bytes");
+        headers.put("ETag", head.eTag());
+        headers.put("Cache-Control", LambdaGetObjects.CACHE_CONTROL);
+
+        if (LambdaGetObjects.notModified(LambdaGetObjects.header(request, "If-None-Match"), head.eTag())) {
+            headers.remove("Content-Type");
+            writeEmpty(output, 304, headers);
+            return;
+        }
+
+        ByteRange range;
+        try {
+            range = ByteRange.parse(LambdaGetObjects.header(request, "Range"), objectSize);
+        } catch (IllegalArgumentException ex) {
+            headers.put("Content-Range", "bytes */" + objectSize);
+            writeEmpty(output, 416, headers);
+            return;
+        }
+
+        long length = range == null ? objectSize : range.length();
+        if (length >= LambdaGetObjects.MAX_SIZE) {
+            logger.log("Object too large to return: " + key + " (" + length + " bytes)");
+            writeJson(output, 413, LambdaGetObjects.tooLargeHeaders(), LambdaGetObjects.tooLargeBody(length));
+            return;
+        }
+
+        GetObjectRequest.Builder s3Request = GetObjectRequest.builder()
+                .bucket(LambdaGetObjects.BUCKET_NAME)
+                .key(key)
+                .ifMatch(head.eTag());
+        if (range != null) {
+            s3Request.range(range.toHeader());
+            headers.put("Content-Range", range.contentRange(objectSize));
+        }
+
+        try (ResponseInputStream<GetObjectResponse> s3Response
+                = LambdaGetObjects.s3Client.getObject(s3Request.build())) {
+
+            writeHead(output, range == null ? 200 : 206, headers);
+
+            // Closing the encoder writes the final padding but must leave output open
+            long copied = 0;
+            try (OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(output) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            })) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = s3Response.readNBytes(chunk, 0, chunk.length)) > 0) {
+                    encoder.write(chunk, 0, read);
+                    copied += read;
+                }
+                if (copied != length) {
+                    throw new IOException("S3 ended the object after " + copied + " of " + length + " bytes");
+                }
+            } catch (IOException ex) {
+                // The response is left unterminated; failing the invocation keeps it from being served
+                logger.log("IOException after " + copied + " bytes of " + key + ": " + ex);
+                throw ex;
+            }
+            output.write("\"}".getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            logger.log("Streamed " + copied + " bytes of " + key);
+        }
+    }
+
+    // Function URL events carry the body Base64-encoded when it is binary
+    private static APIGatewayProxyRequestEvent toRequest(InputStream input) {
+        APIGatewayProxyRequestEvent request = new APIGatewayProxyRequestEvent();
+        JSONObject event = new JSONObject(new JSONTokener(input));
+        Object body = event.opt("body");
+        if (body != null && body != JSONObject.NULL) {
+            request.setBody(event.optBoolean("isBase64Encoded")
+                    ? new String(Base64.getDecoder().decode(body.toString()), StandardCharsets.UTF_8)
+                    : body.toString());
+        }
+        JSONObject headers = event.optJSONObject("headers");
+        if (headers != null) {
+            Map<String, String> values = new HashMap<>();
+            for (String name : headers.keySet()) {
+                values.put(name, headers.optString(name));
+            }
+            request.setHeaders(values);
+        }
+        return request;
+    }
+
+    // Everything up to and including the opening quote of the Base64 "body"
+    private static void writeHead(OutputStream output, int statusCode, Map<String, String> headers)
+            throws IOException {
+        String head = "{\"statusCode\":" + statusCode
+                + ",\"isBase64Encoded\":true"
+                + ",\"headers\":" + new JSONObject(headers)
+                + ",\"body\":\"";
+        output.write(head.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeEmpty(OutputStream output, int statusCode, Map<String, String> headers)
+            throws IOException {
+        writeHead(output, statusCode, headers);
+        output.write("\"}".getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+
+    private static void writeJson(OutputStream output, int statusCode, Map<String, String> headers,
+            JSONObject body) throws IOException {
+        String response = new JSONObject()
+                .put("statusCode", statusCode)
+                .put("isBase64Encoded", false)
+                .put("headers", headers)
+                .put("body", body.toString())
+                .toString();
+        output.write(response.getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+}
@@ -0,0 +1,118 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+public class BatchFetcherTest {
+
+    private static final String BUCKET = LambdaGetObjects.BUCKET_NAME;
+
+    private LocalS3 s3;
+    private S3Client original;
+
+    @Before
+    public void setUp() throws Exception {
+        s3 = new LocalS3();
+        original = LambdaGetObjects.s3Client;
+        LambdaGetObjects.s3Client = s3.client();
+    }
+
+    @After
+    public void tearDown() {
+        LambdaGetObjects.s3Client.close();
+        LambdaGetObjects.s3Client = original;
+        s3.close();
+    }
+
+    private static JSONObject entry(JSONObject result, String key) {
+        JSONArray results = result.getJSONArray("results");
+        for (int i = 0; i < results.length(); i++) {
+            if (key.equals(results.getJSONObject(i).getString("key"))) {
+                return results.getJSONObject(i);
+            }
+        }
+        throw new AssertionError("No entry for " + key);
+    }
+
+    @Test
+    public void keysPastTheBudgetAreDeferredNotFailed() throws Exception {
+        int size = (int) (BatchFetcher.MAX_BYTES * 2 / 5);
+        for (String key : new String[] {"a.png", "b.png", "c.png"}) {
+            s3.put(BUCKET, key, new byte[size], "image/png");
+        }
+
+        JSONObject result = BatchFetcher.fetch(List.of("a.png", "b.png", "missing.png", "c.png"));
+
+        assertEquals(200, entry(result, "a.png").get("status"));
+        assertEquals(200, entry(result, "b.png").get("status"));
+        assertEquals(404, entry(result, "missing.png").get("status"));
+        assertEquals("deferred", entry(result, "c.png").get("status"));
+        assertEquals(List.of("c.png"), result.getJSONArray("truncated").toList());
+        assertEquals(2L * size, result.getLong("bytes"));
+
+        // Asked for again on its own, the deferred key is served
+        assertEquals(200, entry(BatchFetcher.fetch(List.of("c.png")), "c.png").get("status"));
+    }
+
+    @Test
+    public void objectReplacedAfterItsLookupIsFetchedAgain() throws Exception {
+        s3.put(BUCKET, "a.png", new byte[] {1, 2, 3}, "image/png");
+        AtomicInteger gets = new AtomicInteger();
+        s3.beforeRequest(request -> {
+            if (request.equals("GET a.png") && gets.incrementAndGet() == 1) {
+                s3.put(BUCKET, "a.png", new byte[] {4, 5}, "image/png");
+            }
+        });
+
+        JSONObject entry = entry(BatchFetcher.fetch(List.of("a.png")), "a.png");
+
+        assertEquals(200, entry.get("status"));
+        assertArrayEquals(new byte[] {4, 5}, Base64.getDecoder().decode(entry.getString("data")));
+        assertEquals(s3.get(BUCKET, "a.png").eTag, entry.getString("eTag"));
+        assertEquals(2, entry.getInt("size"));
+        assertEquals(List.of("HEAD a.png", "GET a.png", "HEAD a.png", "GET a.png"), s3.requests());
+    }
+
+    @Test
+    public void objectThatKeepsChangingIsAConflict() throws Exception {
+        s3.put(BUCKET, "a.png", new byte[] {0}, "image/png");
+        AtomicInteger version = new AtomicInteger();
+        s3.beforeRequest(request -> {
+            if (request.equals("GET a.png")) {
+                s3.put(BUCKET, "a.png", new byte[] {(byte) version.incrementAndGet()}, "image/png");
+            }
+        });
+
+        JSONObject entry = entry(BatchFetcher.fetch(List.of("a.png")), "a.png");
+
+        assertEquals(409, entry.get("status"));
+    }
+
+    @Test
+    public void objectThatGrewPastItsShareIsDeferred() throws Exception {
+        s3.put(BUCKET, "a.png", new byte[] {1}, "image/png");
+        AtomicInteger gets = new AtomicInteger();
+        s3.beforeRequest(request -> {
+            if (request.equals("GET a.png") && gets.incrementAndGet() == 1) {
+                s3.put(BUCKET, "a.png", new byte[100], "image/png");
+            }
+        });
+
+        JSONObject result = BatchFetcher.fetch(List.of("a.png"));
+
+        assertEquals("deferred", entry(result, "a.png").get("status"));
+        assertEquals(List.of("a.png"), result.getJSONArray("truncated").toList());
+    }
+}
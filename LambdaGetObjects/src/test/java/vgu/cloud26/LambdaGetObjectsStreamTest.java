@@ -0,0 +1,147 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+public class LambdaGetObjectsStreamTest {
+
+    private static final String BUCKET = LambdaGetObjects.BUCKET_NAME;
+
+    private LocalS3 s3;
+    private S3Client original;
+    private final LambdaGetObjectsStream handler = new LambdaGetObjectsStream();
+
+    @Before
+    public void setUp() throws Exception {
+        s3 = new LocalS3();
+        original = LambdaGetObjects.s3Client;
+        LambdaGetObjects.s3Client = s3.client();
+    }
+
+    @After
+    public void tearDown() {
+        LambdaGetObjects.s3Client.close();
+        LambdaGetObjects.s3Client = original;
+        s3.close();
+    }
+
+    // One proxy response written by the handler, with its body decoded
+    private static final class Streamed {
+        final JSONObject response;
+        final byte[] body;
+
+        Streamed(byte[] output) {
+            response = new JSONObject(new String(output, StandardCharsets.UTF_8));
+            String encoded = response.getString("body");
+            body = response.getBoolean("isBase64Encoded")
+                    ? Base64.getDecoder().decode(encoded)
+                    : encoded.getBytes(StandardCharsets.UTF_8);
+        }
+
+        int status() {
+            return response.getInt("statusCode");
+        }
+
+        String header(String name) {
+            return response.getJSONObject("headers").optString(name, null);
+        }
+    }
+
+    private Streamed get(String key, Map<String, String> headers, ByteArrayOutputStream output) throws IOException {
+        JSONObject event = new JSONObject().put("body", new JSONObject().put("key", key).toString());
+        if (headers != null) {
+            event.put("headers", headers);
+        }
+        handler.handleRequest(new ByteArrayInputStream(event.toString().getBytes(StandardCharsets.UTF_8)),
+                output, new TestContext());
+        return new Streamed(output.toByteArray());
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    @Test
+    public void streamsTheObjectAsABase64ProxyResponse() throws IOException {
+        byte[] data = bytes(200_000);
+        s3.put(BUCKET, "big.png", data, "image/png");
+
+        Streamed response = get("big.png", null, new ByteArrayOutputStream());
+
+        assertEquals(200, response.status());
+        assertEquals("image/png", response.header("Content-Type"));
+        assertArrayEquals(data, response.body);
+    }
+
+    @Test
+    public void rangeIsStreamedAsPartialContent() throws IOException {
+        byte[] data = bytes(1000);
+        s3.put(BUCKET, "big.png", data, "image/png");
+
+        Streamed response = get("big.png", Map.of("range", "bytes=10-19"), new ByteArrayOutputStream());
+
+        assertEquals(206, response.status());
+        assertEquals("bytes 10-19/1000", response.header("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 20), response.body);
+    }
+
+    @Test
+    public void missingKeyIsNotFound() throws IOException {
+        Streamed response = get("missing.png", null, new ByteArrayOutputStream());
+
+        assertEquals(404, response.status());
+        assertEquals(0, response.body.length);
+    }
+
+    @Test
+    public void failureMidStreamFailsTheInvocation() {
+        s3.put(BUCKET, "big.png", bytes(200_000), "image/png");
+        s3.truncateBodiesAt(70_000);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            get("big.png", null, output);
+            fail("a cut-off object must not complete the response");
+        } catch (IOException | RuntimeException expected) {
+            // The body was started but the response was never closed
+            String partial = output.toString(StandardCharsets.UTF_8);
+            assertTrue(partial.startsWith("{\"statusCode\":200"));
+            assertFalse(partial.endsWith("\"}"));
+        }
+    }
+
+    @Test
+    public void tooLargeObjectIsRejectedWithoutCacheHeaders() throws IOException {
+        s3.put(BUCKET, "huge.png", new byte[(int) LambdaGetObjects.MAX_SIZE], "image/png");
+
+        Streamed response = get("huge.png", null, new ByteArrayOutputStream());
+
+        assertEquals(413, response.status());
+        assertEquals("no-store", response.header("Cache-Control"));
+        assertNull(response.header("ETag"));
+        assertTrue(new JSONObject(new String(response.body, StandardCharsets.UTF_8)).has("error"));
+    }
+}
@@ -0,0 +1,197 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+public class LambdaGetObjectsTest {
+
+    private static final String BUCKET = LambdaGetObjects.BUCKET_NAME;
+    private static final int LOOKUPS = 50;
+
+    private LocalS3 s3;
+    private S3Client original;
+    private final LambdaGetObjects handler = new LambdaGetObjects();
+
+    @Before
+    public void setUp() throws Exception {
+        s3 = new LocalS3();
+        original = LambdaGetObjects.s3Client;
+        LambdaGetObjects.s3Client = s3.client();
+    }
+
+    @After
+    public void tearDown() {
+        LambdaGetObjects.s3Client.close();
+        LambdaGetObjects.s3Client = original;
+        s3.close();
+    }
+
+    private APIGatewayProxyResponseEvent get(String key, Map<String, String> headers) {
+        return handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withBody(new JSONObject().put("key", key).toString())
+                .withHeaders(headers), new TestContext());
+    }
+
+    private void fill(int from, int to) {
+        for (int i = from; i < to; i++) {
+            s3.put(BUCKET, String.format("photo%05d.png", i), new byte[] {(byte) i}, "image/png");
+        }
+    }
+
+    // Prints the average lookup time at 100 and 10k objects next to the old listing scan
+    @Test
+    public void lookupCostDoesNotDependOnBucketSize() {
+        fill(0, 100);
+        long small = timeLookups("photo00099.png");
+        int smallRequests = s3.requests().size();
+        long smallScan = timeScan("photo00099.png");
+
+        s3.requests().clear();
+        fill(100, 10_000);
+        long large = timeLookups("photo09999.png");
+        int largeRequests = s3.requests().size();
+        s3.requests().clear();
+        long largeScan = timeScan("photo09999.png");
+        long scanRequests = s3.requests().stream().filter("LIST"::equals).count();
+
+        System.out.println("Lookup avg: 100 objects " + small / 1000 + " us, 10k objects " + large / 1000
+                + " us; listing scan: 100 objects " + smallScan / 1000 + " us, 10k objects " + largeScan / 1000
+                + " us (" + scanRequests + " pages)");
+        // One HEAD and one GET per lookup, whatever the bucket size
+        assertEquals(2 * LOOKUPS, smallRequests);
+        assertEquals(2 * LOOKUPS, largeRequests);
+        assertEquals(10, scanRequests);
+        assertTrue("lookup at 10k took " + large + " ns vs " + small + " ns at 100",
+                large < small * 5 + 5_000_000L);
+    }
+
+    private long timeLookups(String key) {
+        get(key, null);
+        s3.requests().clear();
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertEquals(200, (int) get(key, null).getStatusCode());
+        }
+        return (System.nanoTime() - start) / LOOKUPS;
+    }
+
+    // What the handler used to do: list the bucket until the key shows up
+    private long timeScan(String key) {
+        long start = System.nanoTime();
+        boolean found = false;
+        for (S3Object object : LambdaGetObjects.s3Client.listObjectsV2Paginator(
+                ListObjectsV2Request.builder().bucket(BUCKET).build()).contents()) {
+            if (object.key().equals(key)) {
+                found = true;
+                break;
+            }
+        }
+        assertTrue(found);
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void missingKeyIsNotFound() {
+        assertEquals(404, (int) get("missing.png", null).getStatusCode());
+        assertEquals(List.of("HEAD missing.png"), s3.requests());
+    }
+
+    @Test
+    public void servesWholeObjectWithStoredType() {
+        byte[] data = "hello".getBytes(StandardCharsets.UTF_8);
+        s3.put(BUCKET, "a.bin", data, "image/webp");
+
+        APIGatewayProxyResponseEvent response = get("a.bin", null);
+
+        assertEquals(200, (int) response.getStatusCode());
+        assertEquals("image/webp", response.getHeaders().get("Content-Type"));
+        assertEquals(s3.get(BUCKET, "a.bin").eTag, response.getHeaders().get("ETag"));
+        assertArrayEquals(data, Base64.getDecoder().decode(response.getBody()));
+    }
+
+    @Test
+    public void rangeReturnsPartialContent() {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        s3.put(BUCKET, "big.png", data, "image/png");
+
+        APIGatewayProxyResponseEvent response = get("big.png", Map.of("range", "bytes=100-199"));
+
+        assertEquals(206, (int) response.getStatusCode());
+        assertEquals("bytes 100-199/1000", response.getHeaders().get("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 200), Base64.getDecoder().decode(response.getBody()));
+
+        APIGatewayProxyResponseEvent suffix = get("big.png", Map.of("Range", "bytes=-10"));
+        assertEquals("bytes 990-999/1000", suffix.getHeaders().get("Content-Range"));
+    }
+
+    @Test
+    public void rangePastTheEndIsNotSatisfiable() {
+        s3.put(BUCKET, "small.png", new byte[10], "image/png");
+
+        APIGatewayProxyResponseEvent response = get("small.png", Map.of("Range", "bytes=10-"));
+
+        assertEquals(416, (int) response.getStatusCode());
+        assertEquals("bytes */10", response.getHeaders().get("Content-Range"));
+    }
+
+    @Test
+    public void matchingETagIsNotModified() {
+        s3.put(BUCKET, "a.png", new byte[] {1, 2, 3}, "image/png");
+        String eTag = s3.get(BUCKET, "a.png").eTag;
+
+        APIGatewayProxyResponseEvent response = get("a.png", Map.of("If-None-Match", "\"other\", W/" + eTag));
+
+        assertEquals(304, (int) response.getStatusCode());
+        assertEquals(List.of("HEAD a.png"), s3.requests());
+    }
+
+    @Test
+    public void tooLargeObjectIsRejectedWithoutCacheHeaders() {
+        s3.put(BUCKET, "huge.png", new byte[(int) LambdaGetObjects.MAX_SIZE], "image/png");
+
+        APIGatewayProxyResponseEvent response = get("huge.png", null);
+
+        assertEquals(413, (int) response.getStatusCode());
+        assertEquals("no-store", response.getHeaders().get("Cache-Control"));
+        assertFalse(response.getHeaders().containsKey("ETag"));
+        assertEquals(List.of("HEAD huge.png"), s3.requests());
+
+        // A slice under the limit is still served
+        assertEquals(206, (int) get("huge.png", Map.of("Range", "bytes=0-99")).getStatusCode());
+    }
+
+    @Test
+    public void cutOffBodyIsABadGatewayWithoutETag() {
+        s3.put(BUCKET, "big.png", new byte[200_000], "image/png");
+        s3.truncateBodiesAt(70_000);
+
+        APIGatewayProxyResponseEvent response = get("big.png", null);
+
+        assertEquals(502, (int) response.getStatusCode());
+        assertFalse(response.getHeaders().containsKey("ETag"));
+        assertFalse(response.getHeaders().containsKey("Cache-Control"));
+    }
+}
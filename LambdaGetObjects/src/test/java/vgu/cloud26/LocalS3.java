@@ -0,0 +1,308 @@
+package vgu.cloud26;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.checksums.RequestChecksumCalculation;
+import software.amazon.awssdk.core.checksums.ResponseChecksumValidation;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * Local stand-in for the S3 REST API with path-style addressing. Supports
+ * HEAD, GET (with Range and If-Match), PUT (with If-Match and
+ * If-None-Match: *), DELETE and ListObjectsV2 pages of 1000 keys.
+ */
+final class LocalS3 implements AutoCloseable {
+
+    static final class StoredObject {
+        final byte[] data;
+        final String contentType;
+        final String eTag;
+
+        StoredObject(byte[] data, String contentType) {
+            this.data = data;
+            this.contentType = contentType;
+            this.eTag = "\"" + md5(data) + "\"";
+        }
+    }
+
+    private static final int PAGE_SIZE = 1000;
+
+    static {
+        // Headers and body go out in separate writes; without this each request waits on a delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    // Requests are served concurrently, like S3, so a delayed one does not hold up the rest
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // "bucket/key" in key order, as S3 lists them
+    private final NavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    // Runs before each request is served, e.g. to change an object mid-test
+    private volatile Consumer<String> beforeRequest = request -> { };
+    // When set, GET bodies stop after this many bytes and the connection is dropped
+    private volatile int truncateAt = -1;
+
+    LocalS3() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    void put(String bucket, String key, byte[] data, String contentType) {
+        objects.put(bucket + "/" + key, new StoredObject(data, contentType));
+    }
+
+    StoredObject get(String bucket, String key) {
+        return objects.get(bucket + "/" + key);
+    }
+
+    // "METHOD key" for each request served, e.g. "HEAD a.png" or "LIST"
+    List<String> requests() {
+        return requests;
+    }
+
+    void beforeRequest(Consumer<String> hook) {
+        beforeRequest = hook;
+    }
+
+    void truncateBodiesAt(int bytes) {
+        truncateAt = bytes;
+    }
+
+    S3Client client() {
+        return S3Client.builder()
+                .endpointOverride(URI.create("http://127.0.0.1:" + server.getAddress().getPort()))
+                .forcePathStyle(true)
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test")))
+                .requestChecksumCalculation(RequestChecksumCalculation.WHEN_REQUIRED)
+                .responseChecksumValidation(ResponseChecksumValidation.WHEN_REQUIRED)
+                .build();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(1), StandardCharsets.UTF_8);
+            String method = exchange.getRequestMethod();
+            int slash = path.indexOf('/');
+            String bucket = slash < 0 ? path : path.substring(0, slash);
+            String key = slash < 0 ? "" : path.substring(slash + 1);
+            String request = key.isEmpty() && "GET".equals(method) ? "LIST" : method + " " + key;
+            requests.add(request);
+            beforeRequest.accept(request);
+
+            if (key.isEmpty() && "GET".equals(method)) {
+                list(exchange, bucket);
+                return;
+            }
+            StoredObject stored = objects.get(bucket + "/" + key);
+            String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            switch (method) {
+                case "HEAD", "GET" -> {
+                    if (stored == null) {
+                        error(exchange, 404, "NoSuchKey", "HEAD".equals(method));
+                    } else if (ifMatch != null && !ifMatch.equals(stored.eTag)) {
+                        error(exchange, 412, "PreconditionFailed", "HEAD".equals(method));
+                    } else {
+                        object(exchange, stored, "HEAD".equals(method));
+                    }
+                }
+                case "PUT" -> {
+                    byte[] data = exchange.getRequestBody().readAllBytes();
+                    String sha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+                    if (sha256 != null && sha256.startsWith("STREAMING-")) {
+                        data = unchunk(data);
+                    }
+                    if (ifMatch != null && stored == null) {
+                        error(exchange, 404, "NoSuchKey", false);
+                    } else if (ifMatch != null && !ifMatch.equals(stored.eTag)
+                            || "*".equals(ifNoneMatch) && stored != null) {
+                        error(exchange, 412, "PreconditionFailed", false);
+                    } else {
+                        StoredObject created = new StoredObject(data,
+                                exchange.getRequestHeaders().getFirst("Content-Type"));
+                        objects.put(bucket + "/" + key, created);
+                        exchange.getResponseHeaders().add("ETag", created.eTag);
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                }
+                case "DELETE" -> {
+                    objects.remove(bucket + "/" + key);
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> error(exchange, 405, "MethodNotAllowed", false);
+            }
+        }
+    }
+
+    private void object(HttpExchange exchange, StoredObject stored, boolean head) throws IOException {
+        byte[] data = stored.data;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            int start = Integer.parseInt(bounds[0]);
+            int end = bounds[1].isEmpty() ? data.length - 1 : Math.min(Integer.parseInt(bounds[1]), data.length - 1);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            data = Arrays.copyOfRange(data, start, end + 1);
+            status = 206;
+        }
+        exchange.getResponseHeaders().add("ETag", stored.eTag);
+        exchange.getResponseHeaders().add("Content-Type",
+                stored.contentType == null ? "binary/octet-stream" : stored.contentType);
+        exchange.getResponseHeaders().add("Last-Modified", "Sun, 18 Oct 2026 12:00:00 GMT");
+        if (head) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(data.length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, data.length);
+        OutputStream out = exchange.getResponseBody();
+        if (truncateAt >= 0 && truncateAt < data.length) {
+            out.write(data, 0, truncateAt);
+            out.flush();
+            // An exception from the handler makes the server drop the connection
+            throw new IOException("Truncated after " + truncateAt + " bytes");
+        }
+        out.write(data);
+        out.close();
+    }
+
+    private void list(HttpExchange exchange, String bucket) throws IOException {
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+        String prefix = bucket + "/" + query.getOrDefault("prefix", "");
+        String after = query.containsKey("continuation-token")
+                ? bucket + "/" + query.get("continuation-token")
+                : prefix;
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">"
+                + "<Name>" + bucket + "</Name>");
+        int count = 0;
+        String last = null;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : objects.tailMap(after, !query.containsKey("continuation-token"))
+                .entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            if (count == PAGE_SIZE) {
+                truncated = true;
+                break;
+            }
+            last = entry.getKey().substring(bucket.length() + 1);
+            xml.append("<Contents><Key>").append(escape(last)).append("</Key>")
+                    .append("<Size>").append(entry.getValue().data.length).append("</Size>")
+                    .append("<ETag>").append(escape(entry.getValue().eTag)).append("</ETag>")
+                    .append("<LastModified>2026-10-18T12:00:00.000Z</LastModified></Contents>");
+            count++;
+        }
+        xml.append("<KeyCount>").append(count).append("</KeyCount>")
+                .append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) {
+            xml.append("<NextContinuationToken>").append(escape(last)).append("</NextContinuationToken>");
+        }
+        xml.append("</ListBucketResult>");
+
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void error(HttpExchange exchange, int status, String code, boolean head) throws IOException {
+        if (head) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code
+                + "</Code><Message>" + code + "</Message></Error>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // The SDK signs plain-HTTP uploads chunk by chunk: "<hex size>;chunk-signature=...\r\n<data>\r\n"
+    private static byte[] unchunk(byte[] body) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int at = 0;
+        while (at < body.length) {
+            int lineEnd = at;
+            while (body[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            String header = new String(body, at, lineEnd - at, StandardCharsets.US_ASCII);
+            int size = Integer.parseInt(header.split(";")[0], 16);
+            if (size == 0) {
+                break;
+            }
+            data.write(body, lineEnd + 2, size);
+            at = lineEnd + 2 + size + 2;
+        }
+        return data.toByteArray();
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(name, value);
+        }
+        return params;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+/**
+ * First-invocation latency of LambdaGetObjects with and without SnapStart
+ * priming. Every sample is a fresh JVM serving one request from LocalS3.
+ * "primed" runs the registered prime and restore hooks first, as a checkpoint
+ * and restore would; "cold" sends the request straight after class
+ * initialisation. The LocalS3 client is built before the timer in both, like
+ * the handler's own client at init.
+ */
+public class PrimingTest {
+
+    private static final int SAMPLES = 3;
+    private static final String RESULT = "firstInvocationNanos=";
+
+    // Prints the median first-request time of each mode
+    @Test
+    public void firstInvocationWithAndWithoutPriming() throws Exception {
+        List<Long> cold = new ArrayList<>();
+        List<Long> primed = new ArrayList<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            cold.add(fork("cold"));
+            primed.add(fork("primed"));
+        }
+        System.out.println("First invocation, median of " + SAMPLES + " JVMs: cold "
+                + median(cold) / 1000 + " us, primed " + median(primed) / 1000 + " us");
+    }
+
+    private static long fork(String mode) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                PrimingTest.class.getName(), mode)
+                .redirectErrorStream(true)
+                .start();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                output.append(line).append('\n');
+            }
+        }
+        assertEquals("child JVM for " + mode + " failed: " + output, 0, process.waitFor());
+        // The hooks log through LambdaRuntime without a trailing newline
+        String result = output.substring(output.lastIndexOf(RESULT) + RESULT.length());
+        return Long.parseLong(result.trim());
+    }
+
+    private static long median(List<Long> samples) {
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    // Child JVM: serves one request and prints its time in nanoseconds
+    public static void main(String[] args) throws Exception {
+        boolean primed = "primed".equals(args[0]);
+        try (LocalS3 s3 = new LocalS3()) {
+            s3.put(LambdaGetObjects.BUCKET_NAME, "photo.png", new byte[4096], "image/png");
+            LambdaGetObjects handler = new LambdaGetObjects();
+            if (primed) {
+                Priming.checkpointAndRestore();
+            }
+            LambdaGetObjects.s3Client.close();
+            LambdaGetObjects.s3Client = s3.client();
+
+            long start = System.nanoTime();
+            APIGatewayProxyResponseEvent response = handler.handleRequest(new APIGatewayProxyRequestEvent()
+                    .withBody(new JSONObject().put("key", "photo.png").toString()), new TestContext());
+            long elapsed = System.nanoTime() - start;
+
+            LambdaGetObjects.s3Client.close();
+            if (response.getStatusCode() != 200) {
+                throw new IllegalStateException("status " + response.getStatusCode());
+            }
+            System.out.println(RESULT + elapsed);
+        }
+    }
+}
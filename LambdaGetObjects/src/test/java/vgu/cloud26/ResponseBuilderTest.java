@@ -0,0 +1,193 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+public class ResponseBuilderTest {
+
+    // RESPONSE_COMPRESSION_MIN_BYTES is not set in the tests
+    private static final int THRESHOLD = 1024;
+
+    private static APIGatewayProxyRequestEvent accepting(String acceptEncoding) {
+        return new APIGatewayProxyRequestEvent().withHeaders(Map.of("Accept-Encoding", acceptEncoding));
+    }
+
+    // A JSON string of exactly the given length that compresses well
+    private static String json(int length) {
+        String prefix = "{\"d\":\"";
+        return prefix + "a".repeat(length - prefix.length() - 2) + "\"}";
+    }
+
+    private static String decode(APIGatewayProxyResponseEvent response) throws IOException {
+        byte[] bytes = Base64.getDecoder().decode(response.getBody());
+        String encoding = response.getHeaders().get("Content-Encoding");
+        InputStream in = "gzip".equals(encoding)
+                ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+                : new InflaterInputStream(new ByteArrayInputStream(bytes));
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void bodiesBelowTheThresholdAreSentAsText() {
+        APIGatewayProxyResponseEvent response = ResponseBuilder.status(200)
+                .json(json(THRESHOLD - 1))
+                .build(accepting("gzip"));
+
+        assertFalse(response.getIsBase64Encoded());
+        assertNull(response.getHeaders().get("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeaders().get("Vary"));
+        assertEquals(json(THRESHOLD - 1), response.getBody());
+    }
+
+    @Test
+    public void bodiesAtTheThresholdAreCompressedAndBase64Encoded() throws IOException {
+        String body = json(THRESHOLD);
+        APIGatewayProxyResponseEvent response = ResponseBuilder.status(200)
+                .header("ETag", "\"abc\"")
+                .json(body)
+                .build(accepting("gzip, deflate"));
+
+        assertTrue(response.getIsBase64Encoded());
+        assertEquals("gzip", response.getHeaders().get("Content-Encoding"));
+        assertEquals("W/\"abc\"", response.getHeaders().get("ETag"));
+        assertTrue(response.getBody().length() < body.length());
+        assertEquals(body, decode(response));
+    }
+
+    @Test
+    public void higherQValueWinsAndZeroRefuses() throws IOException {
+        String body = json(4 * THRESHOLD);
+
+        APIGatewayProxyResponseEvent deflate = ResponseBuilder.status(200).json(body)
+                .build(accepting("gzip;q=0.5, deflate"));
+        assertEquals("deflate", deflate.getHeaders().get("Content-Encoding"));
+        assertEquals(body, decode(deflate));
+
+        APIGatewayProxyResponseEvent refused = ResponseBuilder.status(200).json(body)
+                .build(accepting("gzip;q=0, *;q=0"));
+        assertFalse(refused.getIsBase64Encoded());
+        assertEquals(body, refused.getBody());
+
+        assertNull(ResponseBuilder.negotiate(null));
+        assertEquals("gzip", ResponseBuilder.negotiate("br, *"));
+    }
+
+    @Test
+    public void noAcceptEncodingMeansIdentity() {
+        String body = json(4 * THRESHOLD);
+        APIGatewayProxyResponseEvent response = ResponseBuilder.status(200).json(body).build();
+
+        assertFalse(response.getIsBase64Encoded());
+        assertEquals(body, response.getBody());
+    }
+
+    // Random Base64-alphabet text shrinks by a quarter at best, which Base64 then undoes
+    @Test
+    public void textThatWouldGrowAsBase64IsSentUnchanged() {
+        byte[] random = new byte[3 * THRESHOLD];
+        new Random(42).nextBytes(random);
+        String body = "\"" + Base64.getEncoder().encodeToString(random) + "\"";
+
+        APIGatewayProxyResponseEvent response = ResponseBuilder.status(200).json(body).build(accepting("gzip"));
+
+        assertFalse(response.getIsBase64Encoded());
+        assertNull(response.getHeaders().get("Content-Encoding"));
+        assertEquals(body, response.getBody());
+    }
+
+    @Test
+    public void binaryBodiesCompareAgainstTheirBase64Size() throws IOException {
+        byte[] text = json(4 * THRESHOLD).getBytes(StandardCharsets.UTF_8);
+        APIGatewayProxyResponseEvent response = ResponseBuilder.status(200)
+                .header("Content-Type", "text/html")
+                .binary(text)
+                .build(accepting("gzip"));
+
+        assertTrue(response.getIsBase64Encoded());
+        assertEquals("gzip", response.getHeaders().get("Content-Encoding"));
+        assertEquals(new String(text, StandardCharsets.UTF_8), decode(response));
+
+        // Raw binary that is already compressed stays as it is, still Base64 for API Gateway
+        byte[] png = new byte[4 * THRESHOLD];
+        new Random(7).nextBytes(png);
+        APIGatewayProxyResponseEvent image = ResponseBuilder.status(200)
+                .header("Content-Type", "image/png")
+                .binary(png)
+                .build(accepting("gzip"));
+        assertTrue(image.getIsBase64Encoded());
+        assertNull(image.getHeaders().get("Content-Encoding"));
+        assertNull(image.getHeaders().get("Vary"));
+        assertEquals(Base64.getEncoder().encodeToString(png), image.getBody());
+    }
+
+    @Test
+    public void partialAndErrorResponsesAreNotCompressed() {
+        String body = json(4 * THRESHOLD);
+
+        APIGatewayProxyResponseEvent partial = ResponseBuilder.status(206)
+                .header("Content-Range", "bytes 0-10/100")
+                .json(body)
+                .build(accepting("gzip"));
+        assertNull(partial.getHeaders().get("Content-Encoding"));
+
+        APIGatewayProxyResponseEvent error = ResponseBuilder.status(500).json(body).build(accepting("gzip"));
+        assertNull(error.getHeaders().get("Content-Encoding"));
+    }
+
+    // Prints wire sizes for a Photos listing and for a gallery page with inline thumbnails
+    @Test
+    public void reportsBytesSavedOnGalleryPayloads() {
+        Random random = new Random(1);
+        JSONArray rows = new JSONArray();
+        JSONArray gallery = new JSONArray();
+        for (int i = 1; i <= 500; i++) {
+            JSONObject row = new JSONObject()
+                    .put("ID", i)
+                    .put("Description", "Holiday photo " + i + " at the beach with friends")
+                    .put("S3Key", "photo-" + i + ".png")
+                    .put("Email", "user" + (i % 20) + "@example.com");
+            rows.put(row);
+            if (i <= 50) {
+                byte[] thumbnail = new byte[6 * 1024];
+                random.nextBytes(thumbnail);
+                gallery.put(new JSONObject(row.toString())
+                        .put("thumbnailData", Base64.getEncoder().encodeToString(thumbnail)));
+            }
+        }
+
+        long listing = report("Photos listing, 500 rows", rows.toString());
+        long thumbnails = report("Gallery page, 50 inline thumbnails", gallery.toString());
+
+        assertTrue("listing should shrink to a fifth", listing * 5 < rows.toString().length());
+        // Base64 thumbnails barely compress, and the wire size must never exceed the raw body
+        assertTrue(thumbnails <= gallery.toString().length());
+    }
+
+    private static long report(String name, String body) {
+        APIGatewayProxyResponseEvent response = ResponseBuilder.status(200).json(body).build(accepting("gzip"));
+        long wire = response.getBody().length();
+        System.out.println(name + ": " + body.length() + " bytes raw, " + wire + " on the wire ("
+                + response.getHeaders().getOrDefault("Content-Encoding", "identity") + "), "
+                + (body.length() - wire) + " saved");
+        return wire;
+    }
+}
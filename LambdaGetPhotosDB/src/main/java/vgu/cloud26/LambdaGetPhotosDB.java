@@ -1,11 +1,10 @@
 package vgu.cloud26;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.util.Base64;
-import java.util.Properties;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -16,7 +15,6 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.rds.RdsUtilities;
 import software.amazon.awssdk.services.rds.model.GenerateAuthenticationTokenRequest;
@@ -30,75 +28,278 @@ public class LambdaGetPhotosDB implements RequestHandler<APIGatewayProxyRequestE
     private static final String JDBC_URL
             = "jdbc:mysql://" + RDS_INSTANCE_HOSTNAME
             + ":" + RDS_INSTANCE_PORT + "/Cloud26";
+    // Kept across warm invocations
+    private static final ConnectionPool pool
+            = new ConnectionPool(JDBC_URL, RDS_INSTANCE_HOSTNAME, RDS_INSTANCE_PORT, DB_USER);
+    // Listings read from DB_REPLICA_HOSTS when set and caught up, shared with LambdaGetPhotosDBStream
+    static final ReplicaRouter defaultRouter = new ReplicaRouter(pool, RDS_INSTANCE_PORT, DB_USER, "Cloud26");
+    // Listings by query, valid while the PhotosVersion counter is unchanged
+    private static final PhotosCache defaultCache = new PhotosCache();
+    // Runs SchemaMigrator on the first request; the snapshot must not hold a DB session
+    private static final boolean MIGRATE_ON_INIT =
+            Boolean.parseBoolean(envOrDefault("SCHEMA_MIGRATE_ON_INIT", "false"));
+    private static volatile boolean migrated;
+    // Listings sent to the primary because the replica had not caught up
+    private static final AtomicLong staleReplicaReads = new AtomicLong();
+    // Listings served by a replica while the primary could not be reached
+    private static final AtomicLong primaryDownReads = new AtomicLong();
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        // Restored copies must not share connections or the IAM token
+        Priming.register("LambdaGetPhotosDB", LambdaGetPhotosDB::prime, defaultRouter::reset);
+    }
+
+    private final ReplicaRouter router;
+    private final PhotosCache cache;
+
+    public LambdaGetPhotosDB() {
+        this(defaultRouter, defaultCache);
+    }
+
+    // Tests pass a router over local databases
+    LambdaGetPhotosDB(ReplicaRouter router, PhotosCache cache) {
+        this.router = router;
+        this.cache = cache;
+    }
+
+    private static void prime() {
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        // Builds the signer without generating a token, credentials come after restore
+        RdsUtilities.builder().region(Region.AP_SOUTHEAST_1).build();
+        GenerateAuthenticationTokenRequest.builder()
+                .hostname(RDS_INSTANCE_HOSTNAME)
+                .port(RDS_INSTANCE_PORT)
+                .username(DB_USER)
+                .build();
+        new JSONArray().put(new JSONObject().put("ID", 1).put("S3Key", "prime.png")).toString();
+    }
 
     public APIGatewayProxyResponseEvent handleRequest(
         APIGatewayProxyRequestEvent request,
         Context context) {
 
         LambdaLogger logger = context.getLogger();
-        JSONArray items = new JSONArray();
+        if (MIGRATE_ON_INIT && !migrated) {
+                migrateOnce(logger);
+        }
 
+        PhotoQuery query;
         try {
-                Class.forName("com.mysql.cj.jdbc.Driver");
-                Connection mySQLClient =
-                        DriverManager.getConnection(
-                                JDBC_URL,
-                                setMySqlConnectionProperties());
+                query = PhotoQuery.from(request);
+        } catch (IllegalArgumentException ex) {
+                return ResponseBuilder.status(400)
+                        .json(new JSONObject().put("error", ex.getMessage()).toString())
+                        .build(request);
+        }
+
+        long start = System.nanoTime();
+        String body = null;
+        boolean hit = false;
+        Long version = null;
+        try {
+                // One primary-key lookup on the primary decides whether the cached listing is
+                // still current and whether a replica is fresh enough to list from. It is read
+                // before the listing, so a write in between files the newer rows under the older
+                // version and the next read refreshes them.
+                Long current = null;
+                boolean primaryUp = true;
+                try (Connection primary = router.primary()) {
+                    current = PhotosCache.counter(primary);
+                } catch (SQLException ex) {
+                    if (query.isConsistent()) {
+                        throw ex;
+                    }
+                    primaryUp = false;
+                    primaryDownReads.incrementAndGet();
+                    logger.log("Primary unavailable, listing from a replica: " + ex);
+                }
+                if (primaryUp) {
+                    version = cache.isEnabled() ? current : null;
+                    body = cache.get(query.cacheKey(), version);
+                    hit = body != null;
+                    if (!hit) {
+                        body = list(router, query, current);
+                        cache.put(query.cacheKey(), version, body);
+                    }
+                } else {
+                    // Nothing says how fresh the replica or the cache is, so this is an uncached miss
+                    ReplicaRouter.Lease read = router.replica();
+                    try (read) {
+                        body = queryBody(read.connection(), query);
+                    } catch (SQLException ex) {
+                        router.failed(read, ex);
+                        throw ex;
+                    }
+                }
+        } catch (Exception ex) {
+                logger.log(ex.toString());
+        }
+        if (body == null) {
+                if (query.isPaged() || query.isColumnar()) {
+                    // An empty page would look like the end of the listing
+                    return ResponseBuilder.status(503)
+                            .json(new JSONObject().put("error", "Photos database unavailable").toString())
+                            .build(request);
+                }
+                // Old callers of the plain array have always got [] on errors
+                body = listingBody(query, new JSONArray(), null);
+        }
+        cache.record(hit, version, System.nanoTime() - start);
+        logger.log("Photos cache " + (hit ? "hit" : "miss") + ", cache " + cache.stats()
+                + ", DB " + router.stats() + ", stale replica reads " + staleReplicaReads.get()
+                + ", primary-down reads " + primaryDownReads.get());
+
+        // Raw JSON, compressed only when the caller sent Accept-Encoding
+        return ResponseBuilder.status(200)
+                .header("X-Cache", hit ? "Hit" : "Miss")
+                .json(body)
+                .build(request);
+        }
 
-                PreparedStatement st =
-                        mySQLClient.prepareStatement("SELECT * FROM Photos");
+    private static String queryBody(Connection mySQLClient, PhotoQuery query) throws SQLException {
+        JSONArray items = new JSONArray();
+        String nextCursor = null;
+        try (PreparedStatement st = mySQLClient.prepareStatement(query.sql())) {
 
-                ResultSet rs = st.executeQuery();
+            query.bind(st);
 
+            try (ResultSet rs = st.executeQuery()) {
+                long lastId = 0;
                 while (rs.next()) {
-                JSONObject item = new JSONObject();
-                item.put("ID", rs.getInt("ID"));
-                item.put("Description", rs.getString("Description"));
-                item.put("S3Key", rs.getString("S3Key"));
-                item.put("Email", rs.getString("Email"));
-                items.put(item);
+                    // The extra row only tells us there is a next page
+                    if (query.isPaged() && items.length() == query.getLimit()) {
+                        nextCursor = query.cursorAfter(lastId);
+                        break;
+                    }
+                    if (query.isPaged()) {
+                        lastId = rs.getLong("ID");
+                    }
+                    JSONObject item = new JSONObject();
+                    for (String field : query.getFields()) {
+                        item.put(field, "ID".equals(field) ? rs.getInt(field) : rs.getString(field));
+                    }
+                    items.put(item);
                 }
-
-        } catch (Exception ex) {
-                logger.log(ex.toString());
+            }
         }
+        return listingBody(query, items, nextCursor);
+    }
 
-        APIGatewayProxyResponseEvent response =
-                new APIGatewayProxyResponseEvent();
+    // Paged callers get { items, nextCursor }; the plain array is kept for old callers
+    private static String listingBody(PhotoQuery query, JSONArray items, String nextCursor) {
+        if (query.isColumnar()) {
+            return columnarBody(query, items, nextCursor);
+        }
+        if (query.isPaged()) {
+            return new JSONObject()
+                    .put("items", items)
+                    .put("nextCursor", nextCursor == null ? JSONObject.NULL : nextCursor)
+                    .toString();
+        }
+        return items.toString();
+    }
 
-        response.setStatusCode(200);
-        response.setBody(items.toString());   // ✅ RAW JSON
-        response.setIsBase64Encoded(false);   // ✅ CORRECT
-        response.setHeaders(
-                java.util.Collections.singletonMap(
-                        "Content-Type", "application/json"));
+    // { count, columns: { field: [values] } }, field names once instead of once per row
+    private static String columnarBody(PhotoQuery query, JSONArray items, String nextCursor) {
+        JSONObject columns = new JSONObject();
+        for (String field : query.getFields()) {
+            JSONArray values = new JSONArray();
+            for (int i = 0; i < items.length(); i++) {
+                values.put(items.getJSONObject(i).opt(field) == null
+                        ? JSONObject.NULL : items.getJSONObject(i).get(field));
+            }
+            columns.put(field, values);
+        }
+        JSONObject body = new JSONObject()
+                .put("count", items.length())
+                .put("columns", columns);
+        if (query.isPaged()) {
+            body.put("nextCursor", nextCursor == null ? JSONObject.NULL : nextCursor);
+        }
+        return body.toString();
+    }
 
-        return response;
+    private static synchronized void migrateOnce(LambdaLogger logger) {
+        if (migrated) {
+            return;
+        }
+        try (Connection conn = openConnection()) {
+            logger.log("Schema migrations applied: " + SchemaMigrator.migrate(conn, logger));
+        } catch (Exception ex) {
+            // Serve anyway; the next cold start tries again
+            logger.log("Schema migration failed: " + ex);
+        } finally {
+            migrated = true;
         }
+    }
 
-    private static Properties setMySqlConnectionProperties() throws Exception {
-        Properties mysqlConnectionProperties = new Properties();
-        mysqlConnectionProperties.setProperty("useSSL", "true");
-        mysqlConnectionProperties.setProperty("user", DB_USER);
-        mysqlConnectionProperties.setProperty("password", generateAuthToken()); // HERE
-        return mysqlConnectionProperties;
+    // Primary connection, for the schema migrator
+    static Connection openConnection() throws Exception {
+        return defaultRouter.primary();
     }
 
-    private static String generateAuthToken() throws Exception {
+    // Lists on the connection readConnection picks; a replica that fails the query is taken out
+    // of rotation and the listing is run again on the primary
+    private static String list(ReplicaRouter router, PhotoQuery query, Long current) throws SQLException {
+        ReplicaRouter.Lease read = readConnection(router, query, current);
+        try (read) {
+            return queryBody(read.connection(), query);
+        } catch (SQLException ex) {
+            if (!read.isReplica()) {
+                throw ex;
+            }
+            router.failed(read, ex);
+        }
+        try (Connection primary = router.primary()) {
+            return queryBody(primary, query);
+        }
+    }
 
-        RdsUtilities rdsUtilities = RdsUtilities.builder().build();
+    // Shared with the streaming variant, LambdaGetPhotosDBStream
+    static ReplicaRouter.Lease readConnection(ReplicaRouter router, PhotoQuery query) throws SQLException {
+        if (query.isConsistent()) {
+            return router.primaryLease();
+        }
+        Long current;
+        try (Connection primary = router.primary()) {
+            current = PhotosCache.counter(primary);
+        }
+        return readConnection(router, query, current);
+    }
 
-        // Generate the authentication token
-        String authToken
-                = rdsUtilities.generateAuthenticationToken(
-                        GenerateAuthenticationTokenRequest.builder()
-                                .hostname(RDS_INSTANCE_HOSTNAME)
-                                .port(RDS_INSTANCE_PORT)
-                                .username(DB_USER)
-                                .region(Region.AP_SOUTHEAST_1)
-                                .credentialsProvider(DefaultCredentialsProvider.create())
-                                .build());
-        return authToken;
+    // A replica that has applied every write up to the primary's version `current`, else the primary
+    static ReplicaRouter.Lease readConnection(ReplicaRouter router, PhotoQuery query, Long current)
+            throws SQLException {
+        // consistent=true reads from the primary, e.g. right after the caller's own upload;
+        // without the counter table there is nothing to compare the replica with
+        if (query.isConsistent() || current == null) {
+            return router.primaryLease();
+        }
+        ReplicaRouter.Lease replica = router.replica();
+        if (!replica.isReplica()) {
+            return replica;
+        }
+        try {
+            Long applied = PhotosCache.counter(replica.connection());
+            if (applied != null && applied >= current) {
+                return replica;
+            }
+            staleReplicaReads.incrementAndGet();
+        } catch (SQLException e) {
+            // A replica that cannot answer the check is taken out of rotation
+            router.failed(replica, e);
+        }
+        replica.close();
+        return router.primaryLease();
+    }
 
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
     }
 }
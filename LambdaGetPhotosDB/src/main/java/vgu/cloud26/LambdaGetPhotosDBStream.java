@@ -0,0 +1,250 @@
+package vgu.cloud26;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+/**
+ * Streaming variant of LambdaGetPhotosDB.
+ *
+ * Rows are read from a MySQL streaming result set and written straight to the
+ * output as the API Gateway proxy response, so heap use does not grow with the
+ * size of the Photos table. Accepts the same paging parameters and returns the
+ * same body as LambdaGetPhotosDB. A replica that fails before the first row
+ * is taken out of rotation and the listing is streamed from the primary. A
+ * database error after the first row has gone out fails the invocation,
+ * leaving the body unterminated, and takes a failing replica out of rotation.
+ */
+public class LambdaGetPhotosDBStream implements RequestStreamHandler {
+
+    // Rows per round trip for drivers without Connector/J's row-by-row streaming
+    private static final int FETCH_SIZE = 500;
+
+    private final ReplicaRouter router;
+
+    public LambdaGetPhotosDBStream() {
+        this(LambdaGetPhotosDB.defaultRouter);
+    }
+
+    // Tests pass a router over local databases
+    LambdaGetPhotosDBStream(ReplicaRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        LambdaLogger logger = context.getLogger();
+
+        PhotoQuery query;
+        try {
+            query = PhotoQuery.from(toRequest(input));
+        } catch (RuntimeException ex) {
+            writeError(output, 400, ex.getMessage());
+            return;
+        }
+        if (query.isColumnar()) {
+            // Columns can't be written until every row is read, which defeats streaming
+            writeError(output, 400, "format=columnar is served by LambdaGetPhotosDB, not the streaming variant");
+            return;
+        }
+
+        try {
+            try (ReplicaRouter.Lease read = LambdaGetPhotosDB.readConnection(router, query)) {
+                try {
+                    stream(read, query, output, logger);
+                    return;
+                } catch (SQLException ex) {
+                    // Nothing has been written yet, so a failed replica can hand over to the primary
+                    if (!read.isReplica()) {
+                        throw ex;
+                    }
+                    router.failed(read, ex);
+                    logger.log("Replica failed before the first row, streaming from the primary: " + ex);
+                }
+            }
+            try (ReplicaRouter.Lease primary = router.primaryLease()) {
+                stream(primary, query, output, logger);
+            }
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            logger.log(ex.toString());
+            writeError(output, 500, ex.getMessage());
+        }
+    }
+
+    // Throws SQLException only before anything is written; a failure after that is an IOException
+    private void stream(ReplicaRouter.Lease read, PhotoQuery query, OutputStream output, LambdaLogger logger)
+            throws SQLException, IOException {
+        Connection conn = read.connection();
+        boolean started = false;
+        try (PreparedStatement st = conn.prepareStatement(
+                query.sql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            // Connector/J streams rows one by one instead of buffering the result
+            boolean mysql = conn.getMetaData().getDriverName().startsWith("MySQL");
+            st.setFetchSize(mysql ? Integer.MIN_VALUE : FETCH_SIZE);
+            query.bind(st);
+
+            try (ResultSet rs = st.executeQuery()) {
+                started = true;
+                Writer out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+                out.write("{\"statusCode\":200,\"isBase64Encoded\":false,"
+                        + "\"headers\":{\"Content-Type\":\"application/json\"},\"body\":\"");
+
+                // Everything inside body is JSON text embedded in a JSON string
+                Writer body = new JsonStringWriter(out);
+                body.write(query.isPaged() ? "{\"items\":[" : "[");
+
+                int count = 0;
+                long lastId = 0;
+                String nextCursor = null;
+                try {
+                    while (rs.next()) {
+                        if (query.isPaged() && count == query.getLimit()) {
+                            nextCursor = query.cursorAfter(lastId);
+                            break;
+                        }
+                        if (query.isPaged()) {
+                            lastId = rs.getLong("ID");
+                        }
+                        if (count++ > 0) {
+                            body.write(',');
+                        }
+                        // Only the requested fields, same order as LambdaGetPhotosDB
+                        char separator = '{';
+                        for (String field : query.getFields()) {
+                            body.write(separator);
+                            body.write(JSONObject.quote(field));
+                            body.write(':');
+                            body.write("ID".equals(field)
+                                    ? Integer.toString(rs.getInt(field))
+                                    : JSONObject.quote(rs.getString(field)));
+                            separator = ',';
+                        }
+                        body.write('}');
+                    }
+                } catch (SQLException ex) {
+                    // The status line is already out; closing the JSON would pass a cut-off
+                    // listing off as complete, so fail the invocation instead
+                    logger.log("Stream aborted after " + count + " rows: " + ex);
+                    router.failed(read, ex);
+                    out.flush();
+                    throw new IOException("Listing aborted after " + count + " rows", ex);
+                }
+
+                body.write(']');
+                if (query.isPaged()) {
+                    body.write(",\"nextCursor\":");
+                    body.write(nextCursor == null ? "null" : JSONObject.quote(nextCursor));
+                    body.write('}');
+                }
+                out.write("\"}");
+                out.flush();
+                logger.log("Streamed rows: " + count + ", DB " + router.stats());
+            }
+        } catch (SQLException ex) {
+            if (!started) {
+                throw ex;
+            }
+            // Only closing the result set or statement can fail here; the listing is already out
+            logger.log("Closing the listing failed: " + ex);
+        }
+    }
+
+    private static APIGatewayProxyRequestEvent toRequest(InputStream input) {
+        Object parsed = new JSONTokener(input).nextValue();
+        APIGatewayProxyRequestEvent request = new APIGatewayProxyRequestEvent();
+        if (!(parsed instanceof JSONObject)) {
+            return request;
+        }
+        JSONObject event = (JSONObject) parsed;
+        Object body = event.opt("body");
+        if (body != null && body != JSONObject.NULL) {
+            request.setBody(body.toString());
+        }
+        JSONObject params = event.optJSONObject("queryStringParameters");
+        if (params != null) {
+            Map<String, String> query = new HashMap<>();
+            for (String key : params.keySet()) {
+                query.put(key, params.optString(key));
+            }
+            request.setQueryStringParameters(query);
+        }
+        return request;
+    }
+
+    private static void writeError(OutputStream output, int status, String message) throws IOException {
+        String response = new JSONObject()
+                .put("statusCode", status)
+                .put("isBase64Encoded", false)
+                .put("headers", Map.of("Content-Type", "application/json"))
+                .put("body", new JSONObject().put("error", String.valueOf(message)).toString())
+                .toString();
+        output.write(response.getBytes(StandardCharsets.UTF_8));
+        output.flush();
+    }
+
+    // Escapes whatever is written so it can sit inside a JSON string literal
+    private static final class JsonStringWriter extends Writer {
+        private final Writer out;
+
+        private JsonStringWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                char c = cbuf[i];
+                switch (c) {
+                    case '"' -> out.write("\\\"");
+                    case '\\' -> out.write("\\\\");
+                    case '\n' -> out.write("\\n");
+                    case '\r' -> out.write("\\r");
+                    case '\t' -> out.write("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            out.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.write(c);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void write(String str) throws IOException {
+            write(str.toCharArray(), 0, str.length());
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
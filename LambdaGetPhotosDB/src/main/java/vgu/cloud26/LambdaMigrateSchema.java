@@ -0,0 +1,55 @@
+package vgu.cloud26;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+
+/**
+ * Migration job for the Photos schema, deployed from the LambdaGetPhotosDB
+ * jar with this class as the handler and run once per deploy.
+ *
+ * Applies pending scripts with SchemaMigrator, then runs EXPLAIN on the hot
+ * statements and reports any that would scan the whole Photos table.
+ * {"explainOnly": true} skips the migration.
+ */
+public class LambdaMigrateSchema implements RequestHandler<Map<String, Object>, String> {
+
+    @Override
+    public String handleRequest(Map<String, Object> input, Context context) {
+        LambdaLogger logger = context.getLogger();
+        boolean explainOnly = input != null && Boolean.TRUE.equals(input.get("explainOnly"));
+
+        try (Connection conn = LambdaGetPhotosDB.openConnection()) {
+            List<String> applied = explainOnly ? List.of() : SchemaMigrator.migrate(conn, logger);
+            JSONArray plans = SchemaMigrator.explain(conn);
+
+            JSONArray fullScans = new JSONArray();
+            for (int i = 0; i < plans.length(); i++) {
+                if (plans.getJSONObject(i).getBoolean("fullScan")) {
+                    fullScans.put(plans.getJSONObject(i).getString("query"));
+                }
+            }
+            logger.log("Applied " + applied + ", full scans " + fullScans);
+
+            return new JSONObject()
+                    .put("status", fullScans.isEmpty() ? "ok" : "warning")
+                    .put("applied", new JSONArray(applied))
+                    .put("plans", plans)
+                    .put("fullScans", fullScans)
+                    .toString();
+        } catch (Exception ex) {
+            logger.log("ERROR in LambdaMigrateSchema: " + ex);
+            return new JSONObject()
+                    .put("status", "error")
+                    .put("message", ex.getMessage())
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package vgu.cloud26;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+/**
+ * Paging and filter parameters for the Photos listing.
+ *
+ * Pages are keyed on ID (keyset pagination), so rows inserted while a client
+ * is paging never shift earlier pages. Parameters are read from the query
+ * string or, for direct invocations, from a JSON body:
+ *   limit   - rows per page (default 50, max 500)
+ *   order   - "newest" for ID descending, anything else ascending
+ *   cursor  - the opaque nextCursor of the previous page
+ *   email   - only photos of this owner (exact match)
+ *   q       - words that must all appear in Description (full-text)
+ *   prefix  - only keys starting with this prefix
+ *   fields  - comma-separated columns to return (ID, Description, S3Key,
+ *             Email; default all four), pushed into the SELECT
+ *   format  - "columnar" for {count, columns: {name: [values]}} instead of
+ *             one object per row
+ *   consistent - "true" always reads from the primary; otherwise a replica
+ *             is used once it has caught up with the primary
+ * A request without limit, order or cursor is not paged and returns every
+ * matching row. Each filter is served by an index, see
+ * db/migration/V2__photo_search_indexes.sql and V4__photos_key_constraints.sql.
+ */
+public final class PhotoQuery {
+
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 500;
+
+    private static final String CURSOR_PREFIX = "v1:";
+    // Columns a caller may ask for, in output order
+    static final List<String> COLUMNS = List.of("ID", "Description", "S3Key", "Email");
+
+    private final boolean paged;
+    private final int limit;
+    private final boolean newestFirst;
+    private final Long afterId;
+    private final String email;
+    private final String search;
+    private final String prefix;
+    private final List<String> fields;
+    private final boolean columnar;
+    private final boolean consistent;
+
+    private PhotoQuery(boolean paged, int limit, boolean newestFirst, Long afterId, Map<String, String> params) {
+        this.paged = paged;
+        this.limit = limit;
+        this.newestFirst = newestFirst;
+        this.afterId = afterId;
+        this.email = nonEmpty(params.get("email"));
+        this.search = nonEmpty(params.get("q")) == null ? null : booleanSearch(params.get("q"));
+        this.prefix = nonEmpty(params.get("prefix"));
+        this.fields = fields(params.get("fields"));
+        this.columnar = "columnar".equalsIgnoreCase(params.get("format"));
+        this.consistent = Boolean.parseBoolean(params.get("consistent"));
+    }
+
+    public static PhotoQuery from(APIGatewayProxyRequestEvent request) {
+        Map<String, String> params = params(request);
+
+        boolean paged = params.containsKey("limit")
+                || params.containsKey("cursor")
+                || params.containsKey("order");
+        if (!paged) {
+            return new PhotoQuery(false, 0, false, null, params);
+        }
+
+        int limit = DEFAULT_LIMIT;
+        if (params.containsKey("limit")) {
+            try {
+                limit = Integer.parseInt(params.get("limit"));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("limit must be a number");
+            }
+            if (limit < 1) {
+                throw new IllegalArgumentException("limit must be at least 1");
+            }
+            limit = Math.min(limit, MAX_LIMIT);
+        }
+
+        boolean newestFirst = "newest".equalsIgnoreCase(params.get("order"));
+        Long afterId = null;
+
+        String cursor = params.get("cursor");
+        if (cursor != null && !cursor.isEmpty()) {
+            // The cursor carries its own order so a page can't flip direction midway
+            String decoded;
+            try {
+                decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            String[] parts = decoded.startsWith(CURSOR_PREFIX)
+                    ? decoded.substring(CURSOR_PREFIX.length()).split(":")
+                    : new String[0];
+            if (parts.length != 2 || !(parts[0].equals("a") || parts[0].equals("d"))) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            newestFirst = parts[0].equals("d");
+            try {
+                afterId = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+
+        return new PhotoQuery(true, limit, newestFirst, afterId, params);
+    }
+
+    public boolean isPaged() {
+        return paged;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // The requested columns, in COLUMNS order
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    public boolean isConsistent() {
+        return consistent;
+    }
+
+    // One extra row is read to know whether another page exists
+    public String sql() {
+        List<String> conditions = new ArrayList<>();
+        if (email != null) {
+            conditions.add("Email = ?");
+        }
+        if (search != null) {
+            conditions.add("MATCH(Description) AGAINST (? IN BOOLEAN MODE)");
+        }
+        if (prefix != null) {
+            conditions.add("S3Key LIKE ? ESCAPE '\\\\'");
+        }
+        if (paged && afterId != null) {
+            conditions.add(newestFirst ? "ID < ?" : "ID > ?");
+        }
+
+        // Paging needs ID for the cursor even when the caller did not ask for it
+        List<String> columns = new ArrayList<>(fields);
+        if (paged && !columns.contains("ID")) {
+            columns.add(0, "ID");
+        }
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(String.join(", ", columns))
+                .append(" FROM Photos");
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        if (paged) {
+            sql.append(newestFirst ? " ORDER BY ID DESC" : " ORDER BY ID ASC");
+            sql.append(" LIMIT ?");
+        }
+        return sql.toString();
+    }
+
+    public void bind(PreparedStatement st) throws SQLException {
+        int index = 1;
+        if (email != null) {
+            st.setString(index++, email);
+        }
+        if (search != null) {
+            st.setString(index++, search);
+        }
+        if (prefix != null) {
+            st.setString(index++, escapeLike(prefix) + "%");
+        }
+        if (!paged) {
+            return;
+        }
+        if (afterId != null) {
+            st.setLong(index++, afterId);
+        }
+        st.setInt(index, limit + 1);
+    }
+
+    // Identifies the result set, for PhotosCache
+    public String cacheKey() {
+        return new JSONObject()
+                .put("paged", paged)
+                .put("limit", limit)
+                .put("newestFirst", newestFirst)
+                .put("afterId", afterId == null ? JSONObject.NULL : afterId)
+                .put("email", email == null ? JSONObject.NULL : email)
+                .put("q", search == null ? JSONObject.NULL : search)
+                .put("prefix", prefix == null ? JSONObject.NULL : prefix)
+                .put("fields", fields)
+                .put("columnar", columnar)
+                .toString();
+    }
+
+    public String cursorAfter(long lastId) {
+        String raw = CURSOR_PREFIX + (newestFirst ? "d" : "a") + ":" + lastId;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Every word is required and may be a prefix ("sun" finds "sunset");
+    // boolean operators typed by the user are dropped
+    private static String booleanSearch(String text) {
+        StringBuilder terms = new StringBuilder();
+        for (String word : text.split("\\s+")) {
+            String term = word.replaceAll("[+\\-<>()~*\"@]", "");
+            if (!term.isEmpty()) {
+                terms.append(terms.length() == 0 ? "" : " ").append('+').append(term).append('*');
+            }
+        }
+        if (terms.length() == 0) {
+            throw new IllegalArgumentException("q must contain at least one word");
+        }
+        return terms.toString();
+    }
+
+    private static List<String> fields(String value) {
+        if (nonEmpty(value) == null) {
+            return COLUMNS;
+        }
+        List<String> requested = new ArrayList<>();
+        for (String name : value.split(",")) {
+            String field = name.trim();
+            if (field.isEmpty()) {
+                continue;
+            }
+            String column = COLUMNS.stream()
+                    .filter(c -> c.equalsIgnoreCase(field))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown field " + field));
+            if (!requested.contains(column)) {
+                requested.add(column);
+            }
+        }
+        if (requested.isEmpty()) {
+            return COLUMNS;
+        }
+        requested.sort((a, b) -> COLUMNS.indexOf(a) - COLUMNS.indexOf(b));
+        return requested;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static String nonEmpty(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static Map<String, String> params(APIGatewayProxyRequestEvent request) {
+        Map<String, String> params = new HashMap<>();
+        String body = request == null ? null : request.getBody();
+        if (body != null && body.trim().startsWith("{")) {
+            JSONObject json;
+            try {
+                json = new JSONObject(body);
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Invalid JSON body: " + e.getMessage());
+            }
+            for (String key : json.keySet()) {
+                params.put(key, json.get(key).toString());
+            }
+        }
+        if (request != null && request.getQueryStringParameters() != null) {
+            params.putAll(request.getQueryStringParameters());
+        }
+        return params;
+    }
+}
@@ -0,0 +1,119 @@
+package vgu.cloud26;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * Read-through cache of Photos listings, keyed by PhotoQuery.cacheKey().
+ *
+ * Every writer of the Photos table bumps the single row of PhotosVersion in
+ * the same transaction (see db/migration/V3__photos_version.sql). A cached
+ * body is served only while that counter still has the value it was cached
+ * under. Checking it costs one primary-key lookup on the primary instead of
+ * the listing query, and a read that follows an acknowledged write always
+ * sees the new counter. The same counter on a replica tells whether that
+ * replica has caught up (see LambdaGetPhotosDB.readConnection).
+ * PHOTOS_CACHE=off disables caching; PHOTOS_CACHE_MAX_ENTRIES (default 256)
+ * bounds its size.
+ */
+public final class PhotosCache {
+
+    private static final boolean ENABLED = !"off".equalsIgnoreCase(envOrDefault("PHOTOS_CACHE", "on"));
+    private static final int MAX_ENTRIES = Integer.parseInt(envOrDefault("PHOTOS_CACHE_MAX_ENTRIES", "256"));
+    private static final String VERSION_SQL = "SELECT Version FROM PhotosVersion WHERE ID = 1";
+    // MySQL ER_NO_SUCH_TABLE, V3 has not been applied yet
+    private static final int NO_SUCH_TABLE = 1146;
+
+    private final Map<String, Cached> entries = new ConcurrentHashMap<>();
+
+    // Metrics, see stats()
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong uncached = new AtomicLong();
+    private final AtomicLong hitNanos = new AtomicLong();
+    private final AtomicLong missNanos = new AtomicLong();
+
+    private static final class Cached {
+        final long version;
+        final String body;
+
+        Cached(long version, String body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // Photos version as seen on this connection, or null when the counter table is missing
+    public static Long counter(Connection conn) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(VERSION_SQL);
+             ResultSet rs = st.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : null;
+        } catch (SQLException e) {
+            if (e.getErrorCode() == NO_SUCH_TABLE) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    // The body cached for this key at this version, or null
+    public String get(String key, Long version) {
+        if (version == null) {
+            return null;
+        }
+        Cached cached = entries.get(key);
+        return cached != null && cached.version == version ? cached.body : null;
+    }
+
+    public void put(String key, Long version, String body) {
+        if (version == null) {
+            return;
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+        entries.put(key, new Cached(version, body));
+    }
+
+    public void record(boolean hit, Long version, long nanos) {
+        if (version == null) {
+            uncached.incrementAndGet();
+            missNanos.addAndGet(nanos);
+        } else if (hit) {
+            hits.incrementAndGet();
+            hitNanos.addAndGet(nanos);
+        } else {
+            misses.incrementAndGet();
+            missNanos.addAndGet(nanos);
+        }
+    }
+
+    public JSONObject stats() {
+        long h = hits.get();
+        long m = misses.get() + uncached.get();
+        return new JSONObject()
+                .put("hits", h)
+                .put("misses", misses.get())
+                .put("uncached", uncached.get())
+                .put("hitRate", h + m == 0 ? 0 : (double) h / (h + m))
+                .put("avgHitMs", h == 0 ? 0 : hitNanos.get() / h / 1_000_000.0)
+                .put("avgMissMs", m == 0 ? 0 : missNanos.get() / m / 1_000_000.0)
+                .put("entries", entries.size());
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
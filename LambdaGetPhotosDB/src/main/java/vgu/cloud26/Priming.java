@@ -0,0 +1,77 @@
+package vgu.cloud26;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+import com.amazonaws.services.lambda.runtime.LambdaRuntime;
+
+/**
+ * SnapStart / CRaC priming for this handler.
+ *
+ * The prime hook runs before the snapshot is taken and should walk the
+ * expensive first-request code paths (client builders, driver and codec
+ * class loading, JCE) without touching real services. The restore hook runs
+ * after the snapshot is resumed and should drop anything that must not be
+ * shared between restored copies, such as cached secrets or connections.
+ */
+public final class Priming implements Resource {
+
+    // org.crac only keeps weak references, so the resources are pinned here
+    private static final List<Priming> resources = new ArrayList<>();
+
+    private final String name;
+    private final Runnable prime;
+    private final Runnable restore;
+
+    private Priming(String name, Runnable prime, Runnable restore) {
+        this.name = name;
+        this.prime = prime;
+        this.restore = restore;
+    }
+
+    public static synchronized void register(String name, Runnable prime, Runnable restore) {
+        Priming resource = new Priming(name, prime, restore);
+        resources.add(resource);
+        Core.getGlobalContext().register(resource);
+    }
+
+    // Runs every hook as a checkpoint followed by a restore would, for local measurements
+    static synchronized void checkpointAndRestore() {
+        for (Priming resource : resources) {
+            resource.beforeCheckpoint(null);
+        }
+        for (Priming resource : resources) {
+            resource.afterRestore(null);
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        run("prime", prime);
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        run("restore", restore);
+    }
+
+    // A failed hook must never block the snapshot or the restore
+    private void run(String phase, Runnable hook) {
+        if (hook == null) {
+            return;
+        }
+        // No invocation Context exists during a checkpoint or restore
+        long start = System.nanoTime();
+        try {
+            hook.run();
+            LambdaRuntime.getLogger().log(name + " " + phase + " took "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (RuntimeException | LinkageError e) {
+            LambdaRuntime.getLogger().log(name + " " + phase + " failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package vgu.cloud26;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.amazonaws.services.lambda.runtime.LambdaRuntime;
+
+/**
+ * Sends read-only work to RDS read replicas and everything else to the
+ * primary.
+ *
+ * DB_REPLICA_HOSTS is a comma-separated list of replica endpoints (none by
+ * default, in which case reads use the primary). Each replica has its own
+ * ConnectionPool and IAM token, and replicas are used round-robin. A replica
+ * that fails to hand out a working connection is taken out of rotation for
+ * DB_REPLICA_RETRY_SECONDS (default 30); after that, the next read probes it
+ * again. A replica that fails a query is taken out of rotation the same way
+ * once the caller reports it with failed(). When no replica is available,
+ * reads fall back to the primary. Replicas lag the primary, so paths that
+ * must see their own writes should use primary().
+ */
+public final class ReplicaRouter {
+
+    private static final long RETRY_MS =
+            TimeUnit.SECONDS.toMillis(Long.parseLong(envOrDefault("DB_REPLICA_RETRY_SECONDS", "30")));
+
+    private final ConnectionPool primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong primaryFallbacks = new AtomicLong();
+
+    private static final class Replica {
+        final String host;
+        final ConnectionPool pool;
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        volatile long downUntil;
+
+        Replica(String host, ConnectionPool pool) {
+            this.host = host;
+            this.pool = pool;
+        }
+    }
+
+    // A read connection and the replica it came from, so a failure can be pinned on that replica
+    public static final class Lease implements AutoCloseable {
+        private final Connection connection;
+        // Null when the connection is the primary's
+        private final Replica replica;
+
+        private Lease(Connection connection, Replica replica) {
+            this.connection = connection;
+            this.replica = replica;
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        public boolean isReplica() {
+            return replica != null;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    public ReplicaRouter(ConnectionPool primary, int port, String user, String database) {
+        this(primary, envOrDefault("DB_REPLICA_HOSTS", ""), port, user, database);
+    }
+
+    ReplicaRouter(ConnectionPool primary, String replicaHosts, int port, String user, String database) {
+        this.primary = primary;
+        for (String host : replicaHosts.split(",")) {
+            if (!host.trim().isEmpty()) {
+                String jdbcUrl = "jdbc:mysql://" + host.trim() + ":" + port + "/" + database;
+                replicas.add(new Replica(host.trim(), new ConnectionPool(jdbcUrl, host.trim(), port, user)));
+            }
+        }
+    }
+
+    // Replica pools by name, for local databases in tests
+    ReplicaRouter(ConnectionPool primary, Map<String, ConnectionPool> replicaPools) {
+        this.primary = primary;
+        replicaPools.forEach((host, pool) -> replicas.add(new Replica(host, pool)));
+    }
+
+    // Writes and read-your-writes lookups
+    public Connection primary() throws SQLException {
+        return primary.getConnection();
+    }
+
+    // The primary as a read lease, for reads that must not go to a replica
+    public Lease primaryLease() throws SQLException {
+        return new Lease(primary.getConnection(), null);
+    }
+
+    // A replica connection when one is healthy, otherwise the primary
+    public Lease replica() throws SQLException {
+        int count = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(1, count));
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            if (System.currentTimeMillis() < replica.downUntil) {
+                continue;
+            }
+            try {
+                Connection connection = replica.pool.getConnection();
+                replica.downUntil = 0;
+                replica.reads.incrementAndGet();
+                return new Lease(connection, replica);
+            } catch (SQLException e) {
+                markDown(replica, e);
+            }
+        }
+        if (count > 0) {
+            primaryFallbacks.incrementAndGet();
+        }
+        return primaryLease();
+    }
+
+    // Takes the lease's replica out of rotation after a query on it failed; a no-op for the primary
+    public void failed(Lease lease, SQLException e) {
+        if (lease.replica != null) {
+            markDown(lease.replica, e);
+        }
+    }
+
+    private static void markDown(Replica replica, SQLException e) {
+        replica.failures.incrementAndGet();
+        replica.downUntil = System.currentTimeMillis() + RETRY_MS;
+        replica.pool.reset();
+        // No invocation Context reaches the router
+        LambdaRuntime.getLogger().log("Replica " + replica.host + " out of rotation: " + e);
+    }
+
+    // Drops every pooled connection and token, e.g. after a SnapStart restore
+    public void reset() {
+        primary.reset();
+        for (Replica replica : replicas) {
+            replica.pool.reset();
+            replica.downUntil = 0;
+        }
+    }
+
+    public JSONObject stats() {
+        JSONArray hosts = new JSONArray();
+        long now = System.currentTimeMillis();
+        for (Replica replica : replicas) {
+            hosts.put(new JSONObject()
+                    .put("host", replica.host)
+                    .put("healthy", now >= replica.downUntil)
+                    .put("reads", replica.reads.get())
+                    .put("failures", replica.failures.get())
+                    .put("pool", replica.pool.stats()));
+        }
+        return new JSONObject()
+                .put("primary", primary.stats())
+                .put("primaryFallbacks", primaryFallbacks.get())
+                .put("replicas", hosts);
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
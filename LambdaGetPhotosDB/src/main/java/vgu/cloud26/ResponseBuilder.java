@@ -0,0 +1,205 @@
+package vgu.cloud26;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+/**
+ * Builds API Gateway proxy responses and negotiates compression.
+ *
+ * Text-like bodies (JSON, text/*, SVG, JavaScript) of at least
+ * RESPONSE_COMPRESSION_MIN_BYTES (default 1024) are gzip- or
+ * deflate-compressed when the request's Accept-Encoding allows it. The
+ * compressed bytes are returned Base64-encoded with Content-Encoding and
+ * Vary set. Already-compressed types such as PNG, partial (206) responses
+ * and bodies that would not get smaller on the wire are sent unchanged.
+ */
+public final class ResponseBuilder {
+
+    private static final int MIN_COMPRESS_BYTES =
+            Integer.parseInt(envOrDefault("RESPONSE_COMPRESSION_MIN_BYTES", "1024"));
+
+    private final int statusCode;
+    private final Map<String, String> headers = new HashMap<>();
+    private byte[] body = new byte[0];
+    private boolean binary;
+
+    private ResponseBuilder(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public static ResponseBuilder status(int statusCode) {
+        return new ResponseBuilder(statusCode);
+    }
+
+    public ResponseBuilder header(String name, String value) {
+        if (value != null) {
+            headers.put(name, value);
+        }
+        return this;
+    }
+
+    public ResponseBuilder headers(Map<String, String> values) {
+        values.forEach(this::header);
+        return this;
+    }
+
+    public ResponseBuilder json(String json) {
+        header("Content-Type", "application/json");
+        return text(json);
+    }
+
+    public ResponseBuilder text(String text) {
+        this.body = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+        this.binary = false;
+        return this;
+    }
+
+    // Raw bytes, sent Base64-encoded as API Gateway expects
+    public ResponseBuilder binary(byte[] bytes) {
+        this.body = bytes == null ? new byte[0] : bytes;
+        this.binary = true;
+        return this;
+    }
+
+    // Response without compression, for internal callers
+    public APIGatewayProxyResponseEvent build() {
+        return build(null);
+    }
+
+    public APIGatewayProxyResponseEvent build(APIGatewayProxyRequestEvent request) {
+        Map<String, String> out = new HashMap<>(headers);
+        byte[] payload = body;
+        boolean base64 = binary;
+
+        if (isCompressible(out)) {
+            out.put("Vary", "Accept-Encoding");
+            String encoding = body.length >= MIN_COMPRESS_BYTES && statusCode == 200
+                    ? negotiate(header(request, "Accept-Encoding"))
+                    : null;
+            if (encoding != null) {
+                byte[] compressed = compress(body, encoding);
+                // Compressed bytes always travel as Base64, so text must shrink by more than a third
+                long originalSize = binary ? base64Length(body.length) : body.length;
+                if (base64Length(compressed.length) < originalSize) {
+                    payload = compressed;
+                    base64 = true;
+                    out.put("Content-Encoding", encoding);
+                    // The compressed bytes are a different representation of the same data
+                    String eTag = out.get("ETag");
+                    if (eTag != null && !eTag.startsWith("W/")) {
+                        out.put("ETag", "W/" + eTag);
+                    }
+                }
+            }
+        }
+
+        return new APIGatewayProxyResponseEvent()
+                .withStatusCode(statusCode)
+                .withHeaders(out)
+                .withBody(base64
+                        ? Base64.getEncoder().encodeToString(payload)
+                        : new String(payload, StandardCharsets.UTF_8))
+                .withIsBase64Encoded(base64);
+    }
+
+    private static boolean isCompressible(Map<String, String> headers) {
+        if (headers.containsKey("Content-Encoding") || headers.containsKey("Content-Range")) {
+            return false;
+        }
+        String type = headers.getOrDefault("Content-Type", "").toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.startsWith("application/json")
+                || type.startsWith("application/javascript")
+                || type.startsWith("image/svg+xml");
+    }
+
+    // gzip or deflate, whichever has the higher q-value; gzip wins ties
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        Double gzip = null;
+        Double deflate = null;
+        double any = 0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String name = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip")) {
+                gzip = q;
+            } else if (name.equals("deflate")) {
+                deflate = q;
+            } else if (name.equals("*")) {
+                any = q;
+            }
+        }
+        // "*" covers the codings that are not listed by name
+        if (gzip == null) {
+            gzip = any;
+        }
+        if (deflate == null) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return "gzip";
+        }
+        return deflate > 0 ? "deflate" : null;
+    }
+
+    private static long base64Length(int bytes) {
+        return 4L * ((bytes + 2) / 3);
+    }
+
+    private static byte[] compress(byte[] data, String encoding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (OutputStream stream = encoding.equals("gzip")
+                ? new GZIPOutputStream(out)
+                : new DeflaterOutputStream(out)) {
+            stream.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // API Gateway may pass header names in any case
+    private static String header(APIGatewayProxyRequestEvent request, String name) {
+        Map<String, String> headers = request == null ? null : request.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
@@ -0,0 +1,326 @@
+package vgu.cloud26;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+/**
+ * Applies the scripts in db/migration in version order and records each one
+ * in SchemaHistory, so running it again is a no-op.
+ *
+ * A MySQL named lock keeps concurrent cold starts from migrating at the same
+ * time. DDL commits implicitly in MySQL, so a script is not atomic and may be
+ * run again after a failure. For a database set up by hand before this runner
+ * existed, CREATE INDEX is skipped when information_schema.statistics already
+ * has that index with the same columns (and fails when the columns differ),
+ * DROP INDEX is skipped when the index is gone, and a seed INSERT whose row
+ * exists is skipped. Any other error, such as duplicate data under a new
+ * unique index, fails the script and it is not recorded. Runs from
+ * LambdaMigrateSchema, or at LambdaGetPhotosDB init when
+ * SCHEMA_MIGRATE_ON_INIT=true.
+ */
+public final class SchemaMigrator {
+
+    // Applied in this order; new scripts go at the end
+    static final String[] MIGRATIONS = {
+        "V1__create_photos.sql",
+        "V2__photo_search_indexes.sql",
+        "V3__photos_version.sql",
+        "V4__photos_key_constraints.sql",
+    };
+
+    private static final String LOCK_NAME = "cloud26_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    // MySQL errors for objects that already exist; indexes are checked before, see execute()
+    private static final Set<Integer> ALREADY_APPLIED = Set.of(
+            1050, // ER_TABLE_EXISTS_ERROR
+            1060  // ER_DUP_FIELDNAME
+    );
+    // ER_DUP_ENTRY: skipped for a seed row that is already there, fatal anywhere else
+    private static final int DUPLICATE_ENTRY = 1062;
+
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "CREATE\\s+(UNIQUE\\s+|FULLTEXT\\s+)?INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)\\s*\\(([^)]*)\\)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern DROP_INDEX = Pattern.compile(
+            "ALTER\\s+TABLE\\s+(\\w+)\\s+DROP\\s+INDEX\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    // Parameters of the listings LambdaGetPhotosDB serves most, run through PhotoQuery so
+    // explain() checks the SQL the handler really sends
+    private static final Map<String, Map<String, String>> HOT_LISTINGS = new LinkedHashMap<>();
+
+    static {
+        HOT_LISTINGS.put("owner listing", Map.of("email", "e", "limit", "50"));
+        // Only ID and S3Key: covered by idx_photos_email_id_s3key ("Using index")
+        HOT_LISTINGS.put("owner key listing", Map.of("email", "e", "fields", "ID,S3Key", "limit", "50"));
+        HOT_LISTINGS.put("gallery page", Map.of("limit", "50"));
+        HOT_LISTINGS.put("prefix listing", Map.of("prefix", "p"));
+        HOT_LISTINGS.put("search", Map.of("q", "sunset"));
+    }
+
+    // A statement checked by explain(), with its parameters
+    static final class HotQuery {
+        final String name;
+        final String sql;
+        private final PhotoQuery listing;
+        private final String[] values;
+
+        private HotQuery(String name, String sql, PhotoQuery listing, String... values) {
+            this.name = name;
+            this.sql = sql;
+            this.listing = listing;
+            this.values = values;
+        }
+
+        void bind(PreparedStatement st) throws SQLException {
+            if (listing != null) {
+                listing.bind(st);
+                return;
+            }
+            for (int i = 0; i < values.length; i++) {
+                st.setString(i + 1, values[i]);
+            }
+        }
+    }
+
+    private SchemaMigrator() {
+    }
+
+    // The scripts applied by this call, in order
+    public static List<String> migrate(Connection conn, LambdaLogger logger) throws SQLException, IOException {
+        if (!lock(conn)) {
+            throw new SQLException("Timed out waiting for the schema migration lock");
+        }
+        try {
+            try (Statement st = conn.createStatement()) {
+                st.execute("CREATE TABLE IF NOT EXISTS SchemaHistory ("
+                        + "Version INT NOT NULL PRIMARY KEY, "
+                        + "Script VARCHAR(255) NOT NULL, "
+                        + "Checksum CHAR(64) NOT NULL, "
+                        + "AppliedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+            }
+            Map<Integer, String> applied = applied(conn);
+
+            List<String> ran = new ArrayList<>();
+            for (String script : MIGRATIONS) {
+                int version = version(script);
+                String sql = read(script);
+                String checksum = sha256(sql);
+                if (applied.containsKey(version)) {
+                    if (!checksum.equals(applied.get(version))) {
+                        logger.log("Migration " + script + " changed after it was applied");
+                    }
+                    continue;
+                }
+                for (String statement : statements(sql)) {
+                    try {
+                        execute(conn, statement, logger);
+                    } catch (SQLException e) {
+                        throw new SQLException(script + " failed and was not recorded, at \"" + statement + "\": "
+                                + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+                    }
+                }
+                try (PreparedStatement st = conn.prepareStatement(
+                        "INSERT INTO SchemaHistory (Version, Script, Checksum) VALUES (?, ?, ?)")) {
+                    st.setInt(1, version);
+                    st.setString(2, script);
+                    st.setString(3, checksum);
+                    st.executeUpdate();
+                }
+                ran.add(script);
+            }
+            return ran;
+        } finally {
+            unlock(conn);
+        }
+    }
+
+    // EXPLAIN for each hot statement; "fullScan" is true when MySQL reads the whole table
+    public static JSONArray explain(Connection conn) throws SQLException {
+        JSONArray plans = new JSONArray();
+        for (HotQuery query : hotQueries()) {
+            try (PreparedStatement st = conn.prepareStatement("EXPLAIN " + query.sql)) {
+                query.bind(st);
+                try (ResultSet rs = st.executeQuery()) {
+                    rs.next();
+                    String type = rs.getString("type");
+                    String extra = rs.getString("Extra") == null ? "" : rs.getString("Extra");
+                    plans.put(new JSONObject()
+                            .put("query", query.name)
+                            .put("type", type == null ? JSONObject.NULL : type)
+                            .put("key", rs.getString("key") == null ? JSONObject.NULL : rs.getString("key"))
+                            .put("extra", extra)
+                            .put("fullScan", "ALL".equals(type))
+                            .put("covering", extra.contains("Using index")));
+                }
+            }
+        }
+        return plans;
+    }
+
+    // LambdaDeletePhotoDB's statements, then the listings as PhotoQuery builds them
+    static List<HotQuery> hotQueries() {
+        List<HotQuery> queries = new ArrayList<>();
+        queries.add(new HotQuery("delete by owner",
+                "DELETE FROM Photos WHERE S3Key = ? AND Email = ?", null, "k", "e"));
+        queries.add(new HotQuery("delete owner lookup", "SELECT Email FROM Photos WHERE S3Key = ?", null, "k"));
+        for (Map.Entry<String, Map<String, String>> listing : HOT_LISTINGS.entrySet()) {
+            PhotoQuery query = PhotoQuery.from(
+                    new APIGatewayProxyRequestEvent().withQueryStringParameters(listing.getValue()));
+            queries.add(new HotQuery(listing.getKey(), query.sql(), query));
+        }
+        return queries;
+    }
+
+    private static void execute(Connection conn, String statement, LambdaLogger logger) throws SQLException {
+        Matcher create = CREATE_INDEX.matcher(statement);
+        Matcher drop = DROP_INDEX.matcher(statement);
+        if (create.matches()) {
+            String existing = indexDefinition(conn, create.group(3), create.group(2));
+            if (existing != null) {
+                String wanted = definition(create.group(1) == null ? "" : create.group(1).trim(),
+                        List.of(create.group(4).split("\\s*,\\s*")));
+                if (!existing.equalsIgnoreCase(wanted)) {
+                    throw new SQLException("Index " + create.group(2) + " exists as " + existing
+                            + ", the script wants " + wanted);
+                }
+                logger.log("Skipped, index already there: " + create.group(2));
+                return;
+            }
+        } else if (drop.matches() && indexDefinition(conn, drop.group(1), drop.group(2)) == null) {
+            logger.log("Skipped, index already gone: " + drop.group(2));
+            return;
+        }
+
+        try (Statement st = conn.createStatement()) {
+            st.execute(statement);
+        } catch (SQLException e) {
+            boolean seedRowThere = e.getErrorCode() == DUPLICATE_ENTRY
+                    && statement.trim().toUpperCase().startsWith("INSERT");
+            if (!ALREADY_APPLIED.contains(e.getErrorCode()) && !seedRowThere) {
+                throw e;
+            }
+            logger.log("Skipped, already applied: " + e.getMessage());
+        }
+    }
+
+    // "UNIQUE (S3Key)", "FULLTEXT (Description)", " (Email, ID)"; null when there is no such index
+    private static String indexDefinition(Connection conn, String table, String index) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(
+                "SELECT COLUMN_NAME, NON_UNIQUE, INDEX_TYPE FROM information_schema.statistics "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ? "
+                        + "ORDER BY SEQ_IN_INDEX")) {
+            st.setString(1, table);
+            st.setString(2, index);
+            try (ResultSet rs = st.executeQuery()) {
+                List<String> columns = new ArrayList<>();
+                String kind = "";
+                while (rs.next()) {
+                    columns.add(rs.getString("COLUMN_NAME"));
+                    kind = "FULLTEXT".equalsIgnoreCase(rs.getString("INDEX_TYPE")) ? "FULLTEXT"
+                            : rs.getInt("NON_UNIQUE") == 0 ? "UNIQUE" : "";
+                }
+                return columns.isEmpty() ? null : definition(kind, columns);
+            }
+        }
+    }
+
+    private static String definition(String kind, List<String> columns) {
+        return kind + " (" + String.join(", ", columns) + ")";
+    }
+
+    private static Map<Integer, String> applied(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT Version, Checksum FROM SchemaHistory")) {
+            while (rs.next()) {
+                applied.put(rs.getInt(1), rs.getString(2));
+            }
+        }
+        return applied;
+    }
+
+    // Scripts hold plain DDL/DML: split on ';' at the end of a line, drop -- comments
+    static List<String> statements(String sql) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : sql.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            current.append(current.length() == 0 ? "" : "\n").append(line);
+            if (trimmed.endsWith(";")) {
+                current.setLength(current.length() - (line.length() - line.lastIndexOf(';')));
+                statements.add(current.toString().trim());
+                current.setLength(0);
+            }
+        }
+        if (current.toString().trim().length() > 0) {
+            statements.add(current.toString().trim());
+        }
+        return statements;
+    }
+
+    private static int version(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    static String read(String script) throws IOException {
+        try (InputStream in = SchemaMigrator.class.getResourceAsStream("/db/migration/" + script)) {
+            if (in == null) {
+                throw new IOException("Missing migration " + script);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean lock(Connection conn) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            st.setString(1, LOCK_NAME);
+            st.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            st.setString(1, LOCK_NAME);
+            st.executeQuery().close();
+        }
+    }
+}
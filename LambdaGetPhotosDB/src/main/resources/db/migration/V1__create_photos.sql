@@ -0,0 +1,10 @@
+-- The Photos table as the handlers use it.
+-- IF NOT EXISTS lets the runner baseline a database where the table was
+-- created by hand before migrations existed.
+CREATE TABLE IF NOT EXISTS Photos (
+    ID INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    Description VARCHAR(1024),
+    Email VARCHAR(255),
+    S3Key VARCHAR(255) NOT NULL,
+    ResizedKey VARCHAR(255)
+);
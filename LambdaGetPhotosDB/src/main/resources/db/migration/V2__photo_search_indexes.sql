@@ -0,0 +1,9 @@
+-- Indexes behind the email, q and prefix filters of LambdaGetPhotosDB.
+-- (Email, ID) serves the exact owner match together with the keyset ORDER BY ID.
+CREATE INDEX idx_photos_email_id ON Photos (Email, ID);
+
+-- Backs MATCH(Description) AGAINST (... IN BOOLEAN MODE).
+CREATE FULLTEXT INDEX ft_photos_description ON Photos (Description);
+
+-- Range scan for S3Key LIKE 'prefix%'.
+CREATE INDEX idx_photos_s3key ON Photos (S3Key);
@@ -0,0 +1,11 @@
+-- Change counter behind the PhotosCache in LambdaGetPhotosDB.
+-- Every writer of Photos runs
+--   UPDATE PhotosVersion SET Version = Version + 1 WHERE ID = 1
+-- in the same transaction as its change, so a cached listing is only served
+-- while nothing has been inserted or deleted since it was read.
+CREATE TABLE PhotosVersion (
+    ID TINYINT NOT NULL PRIMARY KEY,
+    Version BIGINT NOT NULL
+);
+
+INSERT INTO PhotosVersion (ID, Version) VALUES (1, 0);
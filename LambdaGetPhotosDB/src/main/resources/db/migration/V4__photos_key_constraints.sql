@@ -0,0 +1,12 @@
+-- One row per object: LambdaDeletePhotoDB looks rows up and deletes them by
+-- S3Key, and journal replays in LambdaInsertPhotosDB rely on duplicates
+-- being rejected. Replaces the plain index from V2, which is only dropped
+-- once the unique one exists; duplicate keys fail the migration here.
+CREATE UNIQUE INDEX uq_photos_s3key ON Photos (S3Key);
+ALTER TABLE Photos DROP INDEX idx_photos_s3key;
+
+-- Owner listings: WHERE Email = ? ORDER BY ID walks this index in order.
+-- Listings with fields=ID,S3Key read everything from it; the others still
+-- read the row. Supersedes (Email, ID) from V2.
+CREATE INDEX idx_photos_email_id_s3key ON Photos (Email, ID, S3Key);
+ALTER TABLE Photos DROP INDEX idx_photos_email_id;
@@ -0,0 +1,209 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+public class LambdaGetPhotosDBStreamTest {
+
+    private static final int ROWS = 100_000;
+
+    private LocalPhotosDb db;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new LocalPhotosDb();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    private LambdaGetPhotosDBStream streamHandler() {
+        return new LambdaGetPhotosDBStream(new ReplicaRouter(db.pool(), Map.of()));
+    }
+
+    private static ByteArrayInputStream event(String query) {
+        return new ByteArrayInputStream(new JSONObject()
+                .put("queryStringParameters", new JSONObject(query))
+                .toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void replicaFailingBeforeTheFirstRowHandsOverToThePrimary() throws Exception {
+        try (LocalPhotosDb replica = new LocalPhotosDb()) {
+            ReplicaRouter router = new ReplicaRouter(db.pool(), Map.of("replica", replica.pool()));
+            db.insert(1, 3, "owner@example.com");
+            replica.insert(1, 3, "owner@example.com");
+            replica.execute("DROP TABLE Photos");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new LambdaGetPhotosDBStream(router).handleRequest(event("{\"limit\":\"10\"}"), out, new TestContext());
+
+            JSONObject response = new JSONObject(out.toString(StandardCharsets.UTF_8));
+            assertEquals(200, response.getInt("statusCode"));
+            assertEquals(3, new JSONObject(response.getString("body")).getJSONArray("items").length());
+            JSONObject stats = router.stats().getJSONArray("replicas").getJSONObject(0);
+            assertFalse(stats.getBoolean("healthy"));
+            assertEquals(1, stats.getLong("failures"));
+        }
+    }
+
+    @Test
+    public void streamedBodyMatchesBufferedBody() throws Exception {
+        db.insert(1, 120, "owner@example.com");
+
+        for (String query : new String[] {"{}", "{\"limit\":\"50\"}", "{\"fields\":\"S3Key\"}"}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            streamHandler().handleRequest(event(query), out, new TestContext());
+            JSONObject streamed = new JSONObject(out.toString(StandardCharsets.UTF_8));
+
+            Map<String, String> params = new HashMap<>();
+            JSONObject json = new JSONObject(query);
+            json.keySet().forEach(k -> params.put(k, json.getString(k)));
+            APIGatewayProxyResponseEvent buffered = db.handler().handleRequest(
+                    new APIGatewayProxyRequestEvent().withQueryStringParameters(params), new TestContext());
+
+            assertEquals(200, streamed.getInt("statusCode"));
+            // Same rows and fields; key order within a row may differ
+            Object expected = new JSONTokener(buffered.getBody()).nextValue();
+            Object actual = new JSONTokener(streamed.getString("body")).nextValue();
+            assertTrue(query + ": " + actual, expected instanceof JSONArray
+                    ? ((JSONArray) expected).similar(actual)
+                    : ((JSONObject) expected).similar(actual));
+        }
+    }
+
+    // Prints the peak heap of each variant; the streaming one must not grow with the row count
+    @Test
+    public void streamingKeepsHeapFlatOverLargeTable() throws Exception {
+        for (int i = 0; i < ROWS; i += 10_000) {
+            db.insert(i + 1, 10_000, "owner" + (i % 7) + "@example.com");
+        }
+
+        AtomicLong streamedBytes = new AtomicLong();
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                streamedBytes.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                streamedBytes.addAndGet(len);
+            }
+        };
+
+        long buffered = peakHeapGrowth(() -> {
+            APIGatewayProxyResponseEvent response = db.handler().handleRequest(
+                    new APIGatewayProxyRequestEvent(), new TestContext());
+            assertEquals(ROWS, new JSONArray(response.getBody()).length());
+        });
+        long streamed = peakHeapGrowth(() -> streamHandler().handleRequest(event("{}"), sink, new TestContext()));
+
+        System.out.println("Peak heap growth for " + ROWS + " rows: buffered "
+                + buffered / 1024 + " KB, streamed " + streamed / 1024 + " KB, "
+                + streamedBytes.get() / 1024 + " KB written");
+        assertTrue("streamed output too small", streamedBytes.get() > ROWS * 50L);
+        assertTrue("streaming used " + streamed + " bytes vs " + buffered + " buffered",
+                streamed * 4 < buffered);
+    }
+
+    @Test
+    public void databaseFailureMidStreamFailsTheInvocation() throws Exception {
+        db.insert(1, 20_000, "owner@example.com");
+
+        // Once rows are going out, the listing's database session is killed
+        AtomicBoolean aborted = new AtomicBoolean();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                written.write(b, off, len);
+                if (written.size() > 50_000 && aborted.compareAndSet(false, true)) {
+                    try {
+                        db.abortSessions();
+                    } catch (SQLException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        };
+
+        // Unpaged, because H2 reads a LIMIT query in full before the first row
+        try {
+            streamHandler().handleRequest(event("{}"), output, new TestContext());
+            fail("a cut-off listing must not complete the response");
+        } catch (IOException expected) {
+            assertTrue(aborted.get());
+            assertTrue(expected.getMessage(), expected.getCause() instanceof SQLException);
+            // The body is never closed, so it can't pass for the whole listing
+            String partial = written.toString(StandardCharsets.UTF_8);
+            assertTrue(partial.startsWith("{\"statusCode\":200"));
+            assertFalse(partial.endsWith("\"}"));
+        }
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    // Live heap is sampled after a full GC while the body runs, relative to before it
+    private static long peakHeapGrowth(Body body) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long baseline = memory.getHeapMemoryUsage().getUsed();
+
+        AtomicLong peak = new AtomicLong(baseline);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (running.get()) {
+                System.gc();
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+        try {
+            body.run();
+        } finally {
+            running.set(false);
+            sampler.join();
+        }
+        return peak.get() - baseline;
+    }
+}
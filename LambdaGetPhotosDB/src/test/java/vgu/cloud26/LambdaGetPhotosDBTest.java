@@ -0,0 +1,228 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+public class LambdaGetPhotosDBTest {
+
+    private LocalPhotosDb db;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new LocalPhotosDb();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    private static APIGatewayProxyRequestEvent request(Map<String, String> query) {
+        return new APIGatewayProxyRequestEvent().withQueryStringParameters(query);
+    }
+
+    @Test
+    public void pagesStayOrderedWhileRowsAreInserted() throws Exception {
+        int initial = 300;
+        db.insert(1, initial, "owner@example.com");
+        LambdaGetPhotosDB handler = db.handler();
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        Future<?> writer = pool.submit(() -> {
+            int next = initial + 1;
+            while (writing.get()) {
+                db.insert(next, 3, "owner@example.com");
+                next += 3;
+            }
+            return null;
+        });
+
+        List<Future<List<Integer>>> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(pool.submit(() -> {
+                List<Integer> ids = new ArrayList<>();
+                String cursor = null;
+                do {
+                    Map<String, String> query = new HashMap<>();
+                    query.put("limit", "25");
+                    if (cursor != null) {
+                        query.put("cursor", cursor);
+                    }
+                    APIGatewayProxyResponseEvent response =
+                            handler.handleRequest(request(query), new TestContext());
+                    assertEquals(200, (int) response.getStatusCode());
+                    JSONObject page = new JSONObject(response.getBody());
+                    JSONArray items = page.getJSONArray("items");
+                    for (int i = 0; i < items.length(); i++) {
+                        ids.add(items.getJSONObject(i).getInt("ID"));
+                    }
+                    cursor = page.isNull("nextCursor") ? null : page.getString("nextCursor");
+                } while (cursor != null && ids.size() < 2000);
+                return ids;
+            }));
+        }
+
+        try {
+            for (Future<List<Integer>> reader : readers) {
+                List<Integer> ids = reader.get(60, TimeUnit.SECONDS);
+                Set<Integer> seen = ConcurrentHashMap.newKeySet();
+                for (int i = 0; i < ids.size(); i++) {
+                    assertTrue("duplicate ID " + ids.get(i), seen.add(ids.get(i)));
+                    if (i > 0) {
+                        assertTrue("IDs out of order at " + i, ids.get(i) > ids.get(i - 1));
+                    }
+                }
+                for (int id = 1; id <= initial; id++) {
+                    assertTrue("missing ID " + id, seen.contains(id));
+                }
+            }
+        } finally {
+            writing.set(false);
+            writer.get(60, TimeUnit.SECONDS);
+            pool.shutdownNow();
+        }
+    }
+
+    private static int count(LambdaGetPhotosDB handler, String fields, boolean consistent) {
+        Map<String, String> query = new HashMap<>(Map.of("email", "owner@example.com", "fields", fields));
+        if (consistent) {
+            query.put("consistent", "true");
+        }
+        return new JSONArray(handler.handleRequest(request(query), new TestContext()).getBody()).length();
+    }
+
+    @Test
+    public void replicaServesListingsOnlyOnceItHasCaughtUp() throws Exception {
+        try (LocalPhotosDb replica = new LocalPhotosDb()) {
+            LambdaGetPhotosDB handler = new LambdaGetPhotosDB(
+                    new ReplicaRouter(db.pool(), Map.of("replica", replica.pool())), new PhotosCache());
+            db.insert(1, 2, "owner@example.com");
+            replica.insert(1, 2, "owner@example.com");
+
+            // The replica has not applied the third row yet, so the primary answers
+            db.insert(3, 1, "owner@example.com");
+            assertEquals(3, count(handler, "S3Key", false));
+
+            // Once it has, the replica answers; its extra row tells the two apart
+            replica.insert(3, 1, "owner@example.com");
+            replica.insert(4, 1, "owner@example.com");
+            assertEquals(4, count(handler, "ID,S3Key", false));
+
+            // consistent=true always reads the primary
+            assertEquals(3, count(handler, "S3Key,Email", true));
+        }
+    }
+
+    private static JSONObject replicaStats(ReplicaRouter router) {
+        return router.stats().getJSONArray("replicas").getJSONObject(0);
+    }
+
+    @Test
+    public void replicaFailingTheFreshnessCheckIsTakenOutOfRotation() throws Exception {
+        try (LocalPhotosDb replica = new LocalPhotosDb()) {
+            ReplicaRouter router = new ReplicaRouter(db.pool(), Map.of("replica", replica.pool()));
+            LambdaGetPhotosDB handler = new LambdaGetPhotosDB(router, new PhotosCache());
+            db.insert(1, 2, "owner@example.com");
+            replica.insert(1, 2, "owner@example.com");
+            replica.execute("DROP TABLE PhotosVersion");
+
+            assertEquals(2, count(handler, "S3Key", false));
+            assertFalse(replicaStats(router).getBoolean("healthy"));
+            assertEquals(1, replicaStats(router).getLong("failures"));
+
+            // Out of rotation, so the next read goes straight to the primary
+            assertEquals(2, count(handler, "ID,S3Key", false));
+            assertEquals(1, replicaStats(router).getLong("failures"));
+        }
+    }
+
+    @Test
+    public void replicaFailingTheListingIsTakenOutOfRotation() throws Exception {
+        try (LocalPhotosDb replica = new LocalPhotosDb()) {
+            ReplicaRouter router = new ReplicaRouter(db.pool(), Map.of("replica", replica.pool()));
+            LambdaGetPhotosDB handler = new LambdaGetPhotosDB(router, new PhotosCache());
+            db.insert(1, 2, "owner@example.com");
+            replica.insert(1, 2, "owner@example.com");
+            // Caught up, so the replica passes the check and then fails the query
+            replica.execute("DROP TABLE Photos");
+
+            APIGatewayProxyResponseEvent response = handler.handleRequest(
+                    request(Map.of("limit", "10")), new TestContext());
+
+            assertEquals(200, (int) response.getStatusCode());
+            assertEquals(2, new JSONObject(response.getBody()).getJSONArray("items").length());
+            assertFalse(replicaStats(router).getBoolean("healthy"));
+            assertEquals(1, replicaStats(router).getLong("failures"));
+        }
+    }
+
+    @Test
+    public void replicaServesUncachedListingsWhileThePrimaryIsDown() throws Exception {
+        try (LocalPhotosDb replica = new LocalPhotosDb()) {
+            replica.insert(1, 2, "owner@example.com");
+            LambdaGetPhotosDB handler = new LambdaGetPhotosDB(new ReplicaRouter(
+                    new ConnectionPool("jdbc:h2:mem:missing;IFEXISTS=TRUE", "sa", ""),
+                    Map.of("replica", replica.pool())), new PhotosCache());
+
+            for (int i = 0; i < 2; i++) {
+                APIGatewayProxyResponseEvent response = handler.handleRequest(
+                        request(Map.of("limit", "10")), new TestContext());
+                assertEquals(200, (int) response.getStatusCode());
+                assertEquals("Miss", response.getHeaders().get("X-Cache"));
+                assertEquals(2, new JSONObject(response.getBody()).getJSONArray("items").length());
+            }
+
+            // consistent=true needs the primary
+            APIGatewayProxyResponseEvent consistent = handler.handleRequest(
+                    request(Map.of("limit", "10", "consistent", "true")), new TestContext());
+            assertEquals(503, (int) consistent.getStatusCode());
+        }
+    }
+
+    @Test
+    public void malformedJsonBodyIsBadRequest() {
+        APIGatewayProxyResponseEvent response = db.handler().handleRequest(
+                new APIGatewayProxyRequestEvent().withBody("{\"limit\": 10,"), new TestContext());
+
+        assertEquals(400, (int) response.getStatusCode());
+    }
+
+    @Test
+    public void databaseErrorFailsPagedRequests() {
+        LambdaGetPhotosDB handler = new LambdaGetPhotosDB(new ReplicaRouter(
+                new ConnectionPool("jdbc:h2:mem:missing;IFEXISTS=TRUE", "sa", ""), Map.of()), new PhotosCache());
+
+        APIGatewayProxyResponseEvent paged = handler.handleRequest(
+                request(Map.of("limit", "10")), new TestContext());
+        assertEquals(503, (int) paged.getStatusCode());
+
+        // The unpaged array has always come back empty on errors
+        APIGatewayProxyResponseEvent unpaged = handler.handleRequest(
+                new APIGatewayProxyRequestEvent(), new TestContext());
+        assertEquals(200, (int) unpaged.getStatusCode());
+        assertEquals("[]", unpaged.getBody());
+    }
+}
@@ -0,0 +1,97 @@
+package vgu.cloud26;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** In-memory H2 database in MySQL mode with the Photos and PhotosVersion tables. */
+final class LocalPhotosDb implements AutoCloseable {
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    // Lazy execution hands rows out as they are read, like a MySQL streaming result
+    final String url;
+    // Keeps the in-memory database alive until close()
+    private final Connection keepAlive;
+
+    LocalPhotosDb() throws SQLException {
+        url = "jdbc:h2:mem:photos" + counter.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1;LAZY_QUERY_EXECUTION=TRUE";
+        keepAlive = DriverManager.getConnection(url, "sa", "");
+        try (Statement st = keepAlive.createStatement()) {
+            st.execute("CREATE TABLE Photos ("
+                    + "ID INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                    + "Description VARCHAR(1024), "
+                    + "Email VARCHAR(255), "
+                    + "S3Key VARCHAR(255) NOT NULL, "
+                    + "ResizedKey VARCHAR(255))");
+            st.execute("CREATE TABLE PhotosVersion (ID TINYINT NOT NULL PRIMARY KEY, Version BIGINT NOT NULL)");
+            st.execute("INSERT INTO PhotosVersion (ID, Version) VALUES (1, 0)");
+        }
+    }
+
+    ConnectionPool pool() {
+        return new ConnectionPool(url, "sa", "");
+    }
+
+    // A handler whose primary and only replica are this database
+    LambdaGetPhotosDB handler() {
+        return new LambdaGetPhotosDB(new ReplicaRouter(pool(), Map.of()), new PhotosCache());
+    }
+
+    // Inserts rows photo<from>.png .. and bumps the version, as the writers do
+    void insert(int from, int count, String email) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url, "sa", "");
+             PreparedStatement st = conn.prepareStatement(
+                     "INSERT INTO Photos (Description, Email, S3Key) VALUES (?, ?, ?)")) {
+            conn.setAutoCommit(false);
+            for (int i = from; i < from + count; i++) {
+                st.setString(1, "Photo " + i);
+                st.setString(2, email);
+                st.setString(3, "photo" + i + ".png");
+                st.addBatch();
+            }
+            st.executeBatch();
+            try (Statement bump = conn.createStatement()) {
+                bump.executeUpdate("UPDATE PhotosVersion SET Version = Version + 1 WHERE ID = 1");
+            }
+            conn.commit();
+        }
+    }
+
+    // Runs one statement, e.g. to break this database for the tests that need it broken
+    void execute(String sql) throws SQLException {
+        try (Statement st = keepAlive.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    // Kills every other session, as a server crash or failover would; the data stays
+    void abortSessions() throws SQLException {
+        try (Statement st = keepAlive.createStatement();
+             ResultSet rs = st.executeQuery(
+                     "SELECT SESSION_ID FROM INFORMATION_SCHEMA.SESSIONS WHERE SESSION_ID <> SESSION_ID()")) {
+            List<Integer> sessions = new ArrayList<>();
+            while (rs.next()) {
+                sessions.add(rs.getInt(1));
+            }
+            for (int session : sessions) {
+                st.execute("CALL ABORT_SESSION(" + session + ")");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try (Statement st = keepAlive.createStatement()) {
+            st.execute("SHUTDOWN");
+        }
+        keepAlive.close();
+    }
+}
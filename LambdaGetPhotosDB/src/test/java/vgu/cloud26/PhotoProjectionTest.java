@@ -0,0 +1,155 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+public class PhotoProjectionTest {
+
+    private LocalPhotosDb db;
+    private LambdaGetPhotosDB handler;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new LocalPhotosDb();
+        handler = db.handler();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    private APIGatewayProxyResponseEvent get(Map<String, String> params) {
+        APIGatewayProxyResponseEvent response = handler.handleRequest(
+                new APIGatewayProxyRequestEvent().withQueryStringParameters(params), new TestContext());
+        assertEquals(params + ": " + response.getBody(), 200, (int) response.getStatusCode());
+        return response;
+    }
+
+    private static String sql(Map<String, String> params) {
+        return PhotoQuery.from(new APIGatewayProxyRequestEvent().withQueryStringParameters(params)).sql();
+    }
+
+    @Test
+    public void requestedFieldsAreTheSelectList() {
+        assertTrue(sql(Map.of()).startsWith("SELECT ID, Description, S3Key, Email FROM"));
+        assertTrue(sql(Map.of("fields", "s3key, id")).startsWith("SELECT ID, S3Key FROM"));
+        // Paging reads ID for the cursor even when it is not returned
+        assertTrue(sql(Map.of("fields", "S3Key", "limit", "10")).startsWith("SELECT ID, S3Key FROM"));
+    }
+
+    @Test
+    public void rowsCarryOnlyTheRequestedFields() throws Exception {
+        db.insert(1, 30, "owner@example.com");
+
+        JSONArray items = new JSONArray(get(Map.of("fields", "S3Key,Email")).getBody());
+        assertEquals(30, items.length());
+        assertEquals(Set.of("S3Key", "Email"), items.getJSONObject(0).keySet());
+
+        JSONObject page = new JSONObject(get(Map.of("fields", "S3Key", "limit", "10")).getBody());
+        assertEquals(Set.of("S3Key"), page.getJSONArray("items").getJSONObject(0).keySet());
+        JSONObject next = new JSONObject(get(Map.of("fields", "S3Key", "limit", "10",
+                "cursor", page.getString("nextCursor"))).getBody());
+        assertEquals("photo11.png", next.getJSONArray("items").getJSONObject(0).getString("S3Key"));
+    }
+
+    @Test
+    public void withoutParametersTheBodyIsUnchanged() throws Exception {
+        db.insert(1, 2, "owner@example.com");
+
+        JSONArray items = new JSONArray(get(Map.of()).getBody());
+
+        assertTrue(items.similar(new JSONArray()
+                .put(new JSONObject().put("ID", 1).put("Description", "Photo 1")
+                        .put("S3Key", "photo1.png").put("Email", "owner@example.com"))
+                .put(new JSONObject().put("ID", 2).put("Description", "Photo 2")
+                        .put("S3Key", "photo2.png").put("Email", "owner@example.com"))));
+    }
+
+    @Test
+    public void columnarKeepsColumnsAligned() throws Exception {
+        db.insert(1, 2, "owner@example.com");
+        try (Connection conn = DriverManager.getConnection(db.url, "sa", "");
+             Statement st = conn.createStatement()) {
+            st.executeUpdate("INSERT INTO Photos (S3Key) VALUES ('no-description.png')");
+        }
+
+        JSONObject body = new JSONObject(get(Map.of("format", "columnar", "fields", "ID,Description,S3Key",
+                "limit", "2")).getBody());
+        assertEquals(2, body.getInt("count"));
+        assertEquals(Set.of("ID", "Description", "S3Key"), body.getJSONObject("columns").keySet());
+        assertEquals(List.of(1, 2), body.getJSONObject("columns").getJSONArray("ID").toList());
+
+        JSONObject last = new JSONObject(get(Map.of("format", "columnar", "fields", "Description,S3Key",
+                "limit", "2", "cursor", body.getString("nextCursor"))).getBody());
+        assertEquals(1, last.getInt("count"));
+        assertTrue(last.getJSONObject("columns").getJSONArray("Description").isNull(0));
+        assertEquals("no-description.png", last.getJSONObject("columns").getJSONArray("S3Key").get(0));
+        assertFalse(last.getJSONObject("columns").has("ID"));
+        assertTrue(last.isNull("nextCursor"));
+    }
+
+    @Test
+    public void streamingHonoursFieldsAndRejectsColumnar() throws Exception {
+        db.insert(1, 3, "owner@example.com");
+        LambdaGetPhotosDBStream stream = new LambdaGetPhotosDBStream(new ReplicaRouter(db.pool(), Map.of()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream.handleRequest(event(Map.of("fields", "ID")), out, new TestContext());
+        JSONObject response = new JSONObject(out.toString(StandardCharsets.UTF_8));
+        assertEquals(Set.of("ID"), new JSONArray(response.getString("body")).getJSONObject(2).keySet());
+
+        out.reset();
+        stream.handleRequest(event(Map.of("format", "columnar")), out, new TestContext());
+        assertEquals(400, new JSONObject(out.toString(StandardCharsets.UTF_8)).getInt("statusCode"));
+    }
+
+    private static ByteArrayInputStream event(Map<String, String> params) {
+        return new ByteArrayInputStream(new JSONObject().put("queryStringParameters", params)
+                .toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Prints payload size and uncached handler time for rows and columnar, all fields and ID,S3Key
+    @Test
+    public void reportsPayloadSizeByFormat() throws Exception {
+        db.insert(1, 10_000, "owner@example.com");
+        long all = 0;
+        for (String format : new String[] {"rows", "columnar"}) {
+            for (String fields : new String[] {"ID,Description,S3Key,Email", "ID,S3Key"}) {
+                Map<String, String> params = Map.of("format", format, "fields", fields);
+                get(params);
+                // A fresh handler, so the body is built rather than served from its cache
+                handler = db.handler();
+                long start = System.nanoTime();
+                int bytes = get(params).getBody().getBytes(StandardCharsets.UTF_8).length;
+                double millis = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%s, %s: %,d bytes, %.0f ms%n", format, fields, bytes, millis);
+                if (all == 0) {
+                    all = bytes;
+                } else {
+                    assertTrue(format + ", " + fields + " is not smaller", bytes < all);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+public class PhotosCacheTest {
+
+    private static final String OWNER = "owner@example.com";
+
+    private LocalPhotosDb db;
+    private LambdaGetPhotosDB handler;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new LocalPhotosDb();
+        handler = db.handler();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    private APIGatewayProxyResponseEvent list() {
+        return handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withQueryStringParameters(Map.of("email", OWNER, "fields", "S3Key")), new TestContext());
+    }
+
+    private static boolean contains(APIGatewayProxyResponseEvent response, String key) {
+        JSONArray items = new JSONArray(response.getBody());
+        for (int i = 0; i < items.length(); i++) {
+            if (key.equals(items.getJSONObject(i).getString("S3Key"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void writeInvalidatesTheCachedListing() throws Exception {
+        db.insert(1, 3, OWNER);
+        assertEquals("Miss", list().getHeaders().get("X-Cache"));
+        assertEquals("Hit", list().getHeaders().get("X-Cache"));
+
+        db.insert(4, 1, OWNER);
+        APIGatewayProxyResponseEvent afterWrite = list();
+
+        assertEquals("Miss", afterWrite.getHeaders().get("X-Cache"));
+        assertTrue(contains(afterWrite, "photo4.png"));
+        assertEquals(4, new JSONArray(afterWrite.getBody()).length());
+    }
+
+    // Readers keep refilling the cache while rows are written; a read that starts after a
+    // write has committed must always see that row
+    @Test
+    public void readAfterWriteIsNeverStale() throws Exception {
+        int writes = 200;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(pool.submit(() -> {
+                while (writing.get()) {
+                    assertEquals(200, (int) list().getStatusCode());
+                }
+                return null;
+            }));
+        }
+
+        int stale = 0;
+        int hits = 0;
+        for (int i = 1; i <= writes; i++) {
+            db.insert(i, 1, OWNER);
+            APIGatewayProxyResponseEvent response = list();
+            if (!contains(response, "photo" + i + ".png")) {
+                stale++;
+            }
+            // A second read may be a hit, and must still see the row
+            APIGatewayProxyResponseEvent again = list();
+            if ("Hit".equals(again.getHeaders().get("X-Cache"))) {
+                hits++;
+            }
+            if (!contains(again, "photo" + i + ".png")) {
+                stale++;
+            }
+        }
+        writing.set(false);
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+        pool.shutdown();
+
+        System.out.println(writes + " writes, " + hits + " cache hits right after them, " + stale + " stale reads");
+        assertEquals(0, stale);
+        assertTrue("the cache was never used", hits > 0);
+    }
+}
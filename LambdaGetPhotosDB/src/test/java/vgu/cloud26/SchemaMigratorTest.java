@@ -0,0 +1,105 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+/**
+ * EXPLAINs the statements SchemaMigrator.explain() reports on, against the
+ * indexes from V2 and V4. H2 has no GET_LOCK or information_schema.statistics,
+ * so migrate() itself only runs on MySQL; the search query is left out with
+ * its FULLTEXT index.
+ */
+public class SchemaMigratorTest {
+
+    private LocalPhotosDb db;
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new LocalPhotosDb();
+        conn = DriverManager.getConnection(db.url, "sa", "");
+        try (Statement st = conn.createStatement()) {
+            for (String script : new String[] {"V2__photo_search_indexes.sql", "V4__photos_key_constraints.sql"}) {
+                for (String statement : SchemaMigrator.statements(SchemaMigrator.read(script))) {
+                    if (!statement.startsWith("CREATE FULLTEXT")) {
+                        st.execute(statement);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            db.insert(i * 100, 100, "user" + i + "@example.com");
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("ANALYZE");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.close();
+        db.close();
+    }
+
+    private Map<String, String> plans() throws Exception {
+        Map<String, String> plans = new HashMap<>();
+        for (SchemaMigrator.HotQuery query : SchemaMigrator.hotQueries()) {
+            if (query.sql.contains("MATCH(")) {
+                continue;
+            }
+            // MySQL reads '\\' as one backslash, H2 as two
+            String sql = query.sql.replace("ESCAPE '\\\\'", "ESCAPE '\\'");
+            try (PreparedStatement st = conn.prepareStatement("EXPLAIN " + sql)) {
+                query.bind(st);
+                try (ResultSet rs = st.executeQuery()) {
+                    rs.next();
+                    plans.put(query.name, rs.getString(1).toUpperCase());
+                }
+            }
+        }
+        return plans;
+    }
+
+    @Test
+    public void listingsAreTheSqlThePhotoQueryBuilds() {
+        for (SchemaMigrator.HotQuery query : SchemaMigrator.hotQueries()) {
+            if (query.name.equals("owner key listing")) {
+                Map<String, String> params = Map.of("email", "e", "fields", "ID,S3Key", "limit", "50");
+                assertEquals(PhotoQuery.from(new APIGatewayProxyRequestEvent().withQueryStringParameters(params))
+                        .sql(), query.sql);
+                return;
+            }
+        }
+        throw new AssertionError("No owner key listing");
+    }
+
+    @Test
+    public void hotStatementsUseAnIndex() throws Exception {
+        Map<String, String> plans = plans();
+        System.out.println(plans);
+
+        for (Map.Entry<String, String> plan : plans.entrySet()) {
+            assertFalse(plan.getKey() + " scans the table: " + plan.getValue(), plan.getValue().contains("TABLESCAN"));
+        }
+        assertTrue(plans.get("delete by owner").contains("UQ_PHOTOS_S3KEY"));
+        assertTrue(plans.get("delete owner lookup").contains("UQ_PHOTOS_S3KEY"));
+        assertTrue(plans.get("owner listing").contains("IDX_PHOTOS_EMAIL_ID_S3KEY"));
+        assertTrue(plans.get("owner key listing").contains("IDX_PHOTOS_EMAIL_ID_S3KEY"));
+        assertTrue(plans.get("prefix listing").contains("UQ_PHOTOS_S3KEY"));
+    }
+}
@@ -0,0 +1,291 @@
+package vgu.cloud26;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.rds.RdsUtilities;
+import software.amazon.awssdk.services.rds.model.GenerateAuthenticationTokenRequest;
+
+/**
+ * Small MySQL connection pool that lives in a static field and survives warm
+ * invocations.
+ *
+ * Connections use RDS IAM authentication. The token is valid for 15 minutes
+ * and is reused until DB_TOKEN_REFRESH_SECONDS (default 60) before that.
+ * Callers close the connection they borrowed as usual, which hands it back to
+ * the pool. A connection that sat idle longer than DB_VALIDATE_IDLE_MS
+ * (default 5000, which covers a frozen container) is checked with isValid
+ * before reuse, and one older than DB_MAX_LIFETIME_SECONDS (default 600) is
+ * replaced. At most DB_POOL_SIZE (default 2) connections are open at once;
+ * waiting for one times out after DB_CHECKOUT_TIMEOUT_MS (default 10000).
+ */
+public final class ConnectionPool {
+
+    private static final long TOKEN_LIFETIME_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final long TOKEN_REFRESH_MS =
+            TimeUnit.SECONDS.toMillis(Long.parseLong(envOrDefault("DB_TOKEN_REFRESH_SECONDS", "60")));
+    private static final long VALIDATE_IDLE_MS = Long.parseLong(envOrDefault("DB_VALIDATE_IDLE_MS", "5000"));
+    private static final long MAX_LIFETIME_MS =
+            TimeUnit.SECONDS.toMillis(Long.parseLong(envOrDefault("DB_MAX_LIFETIME_SECONDS", "600")));
+    private static final long CHECKOUT_TIMEOUT_MS = Long.parseLong(envOrDefault("DB_CHECKOUT_TIMEOUT_MS", "10000"));
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String jdbcUrl;
+    private final String host;
+    private final int port;
+    private final String user;
+    // Fixed password instead of an IAM token, for local databases in tests
+    private final String password;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final Deque<Pooled> idle = new ArrayDeque<>();
+    private final RdsUtilities rds = RdsUtilities.builder().region(Region.AP_SOUTHEAST_1).build();
+
+    private String token;
+    private long tokenIssuedAt;
+
+    // Metrics, see stats()
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong createNanos = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong tokensGenerated = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(String jdbcUrl, String host, int port, String user) {
+        this(jdbcUrl, host, port, user, null);
+    }
+
+    ConnectionPool(String jdbcUrl, String user, String password) {
+        this(jdbcUrl, null, 0, user, password);
+    }
+
+    private ConnectionPool(String jdbcUrl, String host, int port, String user, String password) {
+        this.jdbcUrl = jdbcUrl;
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Integer.parseInt(envOrDefault("DB_POOL_SIZE", "2"));
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    // A pooled connection; close() returns it to the pool instead of closing it
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(CHECKOUT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a connection after " + CHECKOUT_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        checkouts.incrementAndGet();
+
+        try {
+            Pooled pooled = takeUsable();
+            if (pooled == null) {
+                pooled = create();
+            } else {
+                reused.incrementAndGet();
+            }
+            return handle(pooled);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Closes idle connections and forgets the token, e.g. after a SnapStart restore
+    public void reset() {
+        synchronized (this) {
+            token = null;
+        }
+        Pooled pooled;
+        while ((pooled = poll()) != null) {
+            discard(pooled);
+        }
+    }
+
+    public JSONObject stats() {
+        long n = Math.max(1, checkouts.get());
+        long c = Math.max(1, created.get());
+        return new JSONObject()
+                .put("checkouts", checkouts.get())
+                .put("reused", reused.get())
+                .put("created", created.get())
+                .put("discarded", discarded.get())
+                .put("tokensGenerated", tokensGenerated.get())
+                .put("avgCreateMs", createNanos.get() / c / 1_000_000.0)
+                .put("avgWaitMs", waitNanos.get() / n / 1_000_000.0)
+                .put("maxWaitMs", maxWaitNanos.get() / 1_000_000.0)
+                .put("idle", idleCount());
+    }
+
+    // Newest idle connection that still works, dropping the broken ones on the way
+    private Pooled takeUsable() {
+        Pooled pooled;
+        while ((pooled = poll()) != null) {
+            long now = System.currentTimeMillis();
+            if (now - pooled.createdAt > MAX_LIFETIME_MS) {
+                discard(pooled);
+                continue;
+            }
+            if (now - pooled.lastUsed > VALIDATE_IDLE_MS && !isValid(pooled.connection)) {
+                discard(pooled);
+                continue;
+            }
+            return pooled;
+        }
+        return null;
+    }
+
+    private Pooled create() throws SQLException {
+        long start = System.nanoTime();
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        if (password == null) {
+            props.setProperty("useSSL", "true");
+            props.setProperty("password", token());
+        } else {
+            props.setProperty("password", password);
+        }
+        Connection connection = DriverManager.getConnection(jdbcUrl, props);
+        createNanos.addAndGet(System.nanoTime() - start);
+        created.incrementAndGet();
+        return new Pooled(connection);
+    }
+
+    private synchronized String token() {
+        long now = System.currentTimeMillis();
+        if (token == null || now - tokenIssuedAt > TOKEN_LIFETIME_MS - TOKEN_REFRESH_MS) {
+            token = rds.generateAuthenticationToken(GenerateAuthenticationTokenRequest.builder()
+                    .hostname(host)
+                    .port(port)
+                    .username(user)
+                    .credentialsProvider(DefaultCredentialsProvider.create())
+                    .build());
+            tokenIssuedAt = now;
+            tokensGenerated.incrementAndGet();
+        }
+        return token;
+    }
+
+    private void release(Pooled pooled) {
+        try {
+            if (pooled.connection.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            // Leave no transaction behind for the next borrower
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            synchronized (idle) {
+                idle.push(pooled);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(Pooled pooled) {
+        discarded.incrementAndGet();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            // Already broken, nothing left to release
+        }
+    }
+
+    private Pooled poll() {
+        synchronized (idle) {
+            return idle.poll();
+        }
+    }
+
+    private int idleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection handle(Pooled pooled) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean closed;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!closed) {
+                            closed = true;
+                            release(pooled);
+                        }
+                        return null;
+                    case "isClosed":
+                        return closed || pooled.connection.isClosed();
+                    default:
+                        if (closed) {
+                            throw new SQLException("Connection already returned to the pool");
+                        }
+                        try {
+                            return method.invoke(pooled.connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, handler);
+    }
+
+    private static final class Pooled {
+        final Connection connection;
+        final long createdAt = System.currentTimeMillis();
+        long lastUsed = createdAt;
+
+        Pooled(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
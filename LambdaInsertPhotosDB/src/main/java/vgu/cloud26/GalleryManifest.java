@@ -0,0 +1,211 @@
+package vgu.cloud26;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * The gallery as one JSON object in S3, so listing it is a single GET.
+ *
+ * Layout: {"version": n, "builtAt": millis, "updatedAt": millis,
+ * "items": [{"ID", "S3Key", "Description", "Email", "thumbnailKey"}]}, items
+ * in ID order, in GALLERY_MANIFEST_BUCKET / GALLERY_MANIFEST_KEY (default
+ * resized-bucket-vts253 / gallery-manifest.json). Every write is conditional
+ * (If-Match on the ETag read, or If-None-Match: * when there was none) and
+ * is retried when another writer got there first. The upload and delete
+ * orchestrations patch it, and delete it when a patch fails so it is never
+ * left missing a change. Writers that change Photos without a patch
+ * (LambdaInsertPhotosDB batches, LambdaUploadPhotoDB) delete it after their
+ * commit. The list endpoint rebuilds it from the Photos table when it is
+ * missing, too old, or an internal caller asks for it.
+ */
+public final class GalleryManifest {
+
+    static final String BUCKET = envOrDefault("GALLERY_MANIFEST_BUCKET", "resized-bucket-vts253");
+    static final String KEY = envOrDefault("GALLERY_MANIFEST_KEY", "gallery-manifest.json");
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final S3Client s3;
+
+    public GalleryManifest(S3Client s3) {
+        this.s3 = s3;
+    }
+
+    public static JSONObject item(long id, String s3Key, String description, String email) {
+        return new JSONObject()
+                .put("ID", id)
+                .put("S3Key", s3Key)
+                .put("Description", description)
+                .put("Email", email)
+                .put("thumbnailKey", "resized-" + s3Key);
+    }
+
+    // The manifest, or null when it does not exist yet
+    public JSONObject read() {
+        try {
+            return new JSONObject(s3.getObjectAsBytes(request()).asUtf8String());
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    // Adds or replaces the entry for the item's S3Key; false when there is no manifest to patch
+    public boolean add(JSONObject item, LambdaLogger logger) {
+        String s3Key = item.getString("S3Key");
+        long id = item.getLong("ID");
+        return update(items -> {
+            removeKey(items, s3Key);
+            // Concurrent uploads can land out of order, so the entry goes where its ID sorts
+            int at = items.length();
+            while (at > 0 && items.getJSONObject(at - 1).optLong("ID") > id) {
+                at--;
+            }
+            for (int i = items.length(); i > at; i--) {
+                items.put(i, items.get(i - 1));
+            }
+            items.put(at, item);
+        }, logger);
+    }
+
+    public boolean remove(String s3Key, LambdaLogger logger) {
+        return update(items -> removeKey(items, s3Key), logger);
+    }
+
+    // Replaces the manifest with rows from the Photos table. The rows are read after the
+    // manifest's ETag, so a patch that lands in between fails the write and the rows are read again.
+    public JSONObject rebuild(Supplier<JSONArray> dbItems, LambdaLogger logger) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            ResponseBytes<GetObjectResponse> current;
+            try {
+                current = s3.getObjectAsBytes(request());
+            } catch (NoSuchKeyException e) {
+                current = null;
+            }
+            long previousVersion = current == null ? 0 : new JSONObject(current.asUtf8String()).optLong("version");
+
+            JSONArray rows = dbItems.get();
+            long now = System.currentTimeMillis();
+            JSONArray items = new JSONArray();
+            for (int i = 0; i < rows.length(); i++) {
+                JSONObject row = rows.getJSONObject(i);
+                items.put(item(row.getLong("ID"), row.getString("S3Key"),
+                        row.optString("Description"), row.optString("Email")));
+            }
+            JSONObject manifest = new JSONObject()
+                    .put("version", previousVersion + 1)
+                    .put("builtAt", now)
+                    .put("updatedAt", now)
+                    .put("items", items);
+
+            PutObjectRequest.Builder put = PutObjectRequest.builder()
+                    .bucket(BUCKET)
+                    .key(KEY)
+                    .contentType("application/json");
+            if (current == null) {
+                put.ifNoneMatch("*");
+            } else {
+                put.ifMatch(current.response().eTag());
+            }
+            if (put(put.build(), manifest, attempt, logger)) {
+                return manifest;
+            }
+        }
+        throw new IllegalStateException("Gallery manifest rebuild lost " + MAX_ATTEMPTS + " races in a row");
+    }
+
+    // Deletes the manifest so the next listing rebuilds it from the Photos table,
+    // e.g. after a patch failed and the manifest no longer matches the table
+    public void invalidate(LambdaLogger logger) {
+        try {
+            s3.deleteObject(DeleteObjectRequest.builder().bucket(BUCKET).key(KEY).build());
+            logger.log("Gallery manifest invalidated, it will be rebuilt on the next listing");
+        } catch (RuntimeException e) {
+            logger.log("Gallery manifest invalidation failed: " + e);
+        }
+    }
+
+    // Read-modify-write guarded by the object's ETag, retried on a lost race
+    private boolean update(Consumer<JSONArray> change, LambdaLogger logger) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            ResponseBytes<GetObjectResponse> current;
+            try {
+                current = s3.getObjectAsBytes(request());
+            } catch (NoSuchKeyException e) {
+                logger.log("Gallery manifest missing, it will be rebuilt on the next listing");
+                return false;
+            }
+
+            JSONObject manifest = new JSONObject(current.asUtf8String());
+            change.accept(manifest.getJSONArray("items"));
+            manifest.put("version", manifest.optLong("version") + 1)
+                    .put("updatedAt", System.currentTimeMillis());
+
+            if (put(PutObjectRequest.builder()
+                    .bucket(BUCKET)
+                    .key(KEY)
+                    .contentType("application/json")
+                    .ifMatch(current.response().eTag())
+                    .build(), manifest, attempt, logger)) {
+                return true;
+            }
+        }
+        throw new IllegalStateException("Gallery manifest update lost " + MAX_ATTEMPTS + " races in a row");
+    }
+
+    // False when the condition failed and the caller should read again and retry
+    private boolean put(PutObjectRequest request, JSONObject manifest, int attempt, LambdaLogger logger) {
+        try {
+            s3.putObject(request, RequestBody.fromString(manifest.toString()));
+            return true;
+        } catch (S3Exception e) {
+            // 412: someone else wrote first, 409: a concurrent conditional write is in progress,
+            // 404: the manifest was deleted since it was read
+            if (e.statusCode() != 412 && e.statusCode() != 409 && e.statusCode() != 404) {
+                throw e;
+            }
+            logger.log("Gallery manifest changed underneath, retry " + attempt);
+            sleep(attempt);
+            return false;
+        }
+    }
+
+    private static void removeKey(JSONArray items, String s3Key) {
+        for (int i = items.length() - 1; i >= 0; i--) {
+            if (s3Key.equals(items.getJSONObject(i).optString("S3Key"))) {
+                items.remove(i);
+            }
+        }
+    }
+
+    private static GetObjectRequest request() {
+        return GetObjectRequest.builder().bucket(BUCKET).key(KEY).build();
+    }
+
+    private static void sleep(int attempt) {
+        try {
+            // Full-jitter exponential backoff so racing writers spread out
+            Thread.sleep((long) (Math.random() * Math.min(1000L, 25L << attempt)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
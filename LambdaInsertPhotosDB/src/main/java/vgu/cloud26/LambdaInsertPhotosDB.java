@@ -1,11 +1,15 @@
 package vgu.cloud26;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import com.amazonaws.services.lambda.runtime.Context;
@@ -14,10 +18,10 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.rds.RdsUtilities;
 import software.amazon.awssdk.services.rds.model.GenerateAuthenticationTokenRequest;
+import software.amazon.awssdk.services.s3.S3Client;
 
 public class LambdaInsertPhotosDB implements RequestHandler<Map<String, Object>, String> {
 
@@ -26,13 +30,58 @@ public class LambdaInsertPhotosDB implements RequestHandler<Map<String, Object>,
     private static final int RDS_INSTANCE_PORT = 3306;
     private static final String DB_USER = "cloud26";
     private static final String JDBC_URL =
-            "jdbc:mysql://" + RDS_INSTANCE_HOSTNAME + ":" + RDS_INSTANCE_PORT + "/Cloud26";
+            "jdbc:mysql://" + RDS_INSTANCE_HOSTNAME + ":" + RDS_INSTANCE_PORT + "/Cloud26"
+            // Lets Connector/J send a batch as multi-row INSERTs instead of one statement per row
+            + "?rewriteBatchedStatements=true";
+    private static final String INSERT_SQL =
+            "INSERT INTO Photos (Description, Email, S3Key, ResizedKey) VALUES (?, ?, ?, ?)";
+    // Rows per executeBatch call within the one transaction
+    private static final int BATCH_SIZE = Integer.parseInt(envOrDefault("INSERT_BATCH_SIZE", "1000"));
+
+    // Kept across warm invocations; replaced by the tests
+    static volatile ConnectionPool pool =
+            new ConnectionPool(JDBC_URL, RDS_INSTANCE_HOSTNAME, RDS_INSTANCE_PORT, DB_USER);
+    // Batches are not patched into the gallery manifest, so they delete it; replaced by the tests
+    static volatile GalleryManifest manifest =
+            new GalleryManifest(S3Client.builder().region(Region.AP_SOUTHEAST_1).build());
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        // Restored copies must not share connections or the IAM token
+        Priming.register("LambdaInsertPhotosDB", LambdaInsertPhotosDB::prime, LambdaInsertPhotosDB::restore);
+    }
+
+    private static void prime() {
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        // Builds the signer without generating a token, credentials come after restore
+        RdsUtilities.builder().region(Region.AP_SOUTHEAST_1).build();
+        GenerateAuthenticationTokenRequest.builder()
+                .hostname(RDS_INSTANCE_HOSTNAME)
+                .port(RDS_INSTANCE_PORT)
+                .username(DB_USER)
+                .build();
+        new JSONObject(java.util.Map.of("s3Key", "prime.png")).getString("s3Key");
+    }
+
+    private static void restore() {
+        pool.reset();
+        manifest = new GalleryManifest(S3Client.builder().region(Region.AP_SOUTHEAST_1).build());
+    }
 
     @Override
     public String handleRequest(Map<String, Object> input, Context context) {
         LambdaLogger logger = context.getLogger();
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
 
+        // Several records at once: {"photos": [{description, email, s3Key, resizedKey}, ...]}
+        if (input.containsKey("photos")) {
+            return insertBatch(new JSONObject(input).getJSONArray("photos"), logger).toString();
+        }
+
         try {
             // 1. Parse JSON body (Matches Orchestrator payload)
             logger.log("Request body: " + input);
@@ -43,13 +92,13 @@ public class LambdaInsertPhotosDB implements RequestHandler<Map<String, Object>,
             String s3Key = json.getString("s3Key");
             String resizedKey = json.getString("resizedKey");
 
-            // 2. Connect to MySQL
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            try (Connection conn = DriverManager.getConnection(JDBC_URL, setMySqlConnectionProperties())) {
+            // 2. Borrow a pooled MySQL connection
+            long id;
+            try (Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
 
                 // 3. INSERT INTO Photos table (Modified for 4 columns)
-                String sql = "INSERT INTO Photos (Description, Email, S3Key, ResizedKey) VALUES (?, ?, ?, ?)";
-                try (PreparedStatement st = conn.prepareStatement(sql)) {
+                try (PreparedStatement st = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
                     st.setString(1, description);
                     st.setString(2, email);
                     st.setString(3, s3Key);
@@ -57,13 +106,22 @@ public class LambdaInsertPhotosDB implements RequestHandler<Map<String, Object>,
                     
                     int rows = st.executeUpdate();
                     logger.log("Inserted rows: " + rows);
+                    // The orchestration needs the ID for the gallery manifest entry
+                    try (ResultSet keys = st.getGeneratedKeys()) {
+                        keys.next();
+                        id = keys.getLong(1);
+                    }
                 }
+                bumpPhotosVersion(conn);
+                conn.commit();
             }
+            logger.log("DB pool " + pool.stats());
 
             // 4. Build success JSON
             JSONObject result = new JSONObject();
             result.put("status", "ok");
             result.put("message", "Photo record created successfully");
+            result.put("id", id);
             result.put("email", email);
             result.put("s3Key", s3Key);
 
@@ -83,26 +141,120 @@ public class LambdaInsertPhotosDB implements RequestHandler<Map<String, Object>,
             response.setHeaders(java.util.Map.of("Content-Type", "application/json"));
         }
 
-        return "{\"status\":\"success\"}";
+        // The caller reads status ("ok" or "error") and id straight from the payload
+        return response.getBody();
+    }
+
+    // All valid rows go in one transaction; a failure rolls every one of them back
+    private static JSONObject insertBatch(JSONArray photos, LambdaLogger logger) {
+        long start = System.nanoTime();
+        JSONArray results = new JSONArray();
+        List<Integer> valid = new ArrayList<>();
+        for (int i = 0; i < photos.length(); i++) {
+            JSONObject photo = photos.optJSONObject(i);
+            JSONObject result = new JSONObject().put("index", i);
+            if (!isComplete(photo)) {
+                result.put("status", "invalid").put("message", "Missing required fields");
+            } else {
+                result.put("s3Key", photo.getString("s3Key"));
+                valid.add(i);
+            }
+            results.put(result);
+        }
+
+        int inserted = 0;
+        String error = null;
+        if (!valid.isEmpty()) {
+            List<JSONObject> rows = new ArrayList<>(valid.size());
+            for (int i : valid) {
+                rows.add(photos.getJSONObject(i));
+            }
+            try {
+                writeRows(rows);
+                inserted = valid.size();
+            } catch (SQLException ex) {
+                logger.log("ERROR in LambdaInsertPhotoDB batch: " + ex);
+                error = ex.getMessage();
+            }
+        }
+
+        for (int i : valid) {
+            JSONObject result = results.getJSONObject(i);
+            if (error == null) {
+                result.put("status", "ok");
+            } else {
+                result.put("status", "failed").put("message", error);
+            }
+        }
+
+        if (inserted > 0) {
+            // The next listing rebuilds it from the table, new rows included
+            manifest.invalidate(logger);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.log("Batch inserted " + inserted + " of " + photos.length() + " rows in "
+                + Math.round(seconds * 1000) + " ms, DB pool " + pool.stats());
+        return new JSONObject()
+                .put("status", error == null ? "ok" : "error")
+                .put("inserted", inserted)
+                .put("rejected", photos.length() - inserted)
+                .put("rowsPerSecond", seconds > 0 ? Math.round(inserted / seconds) : inserted)
+                .put("results", results);
+    }
+
+    // One transaction, sent in executeBatch chunks of BATCH_SIZE
+    private static void writeRows(List<JSONObject> rows) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement st = conn.prepareStatement(INSERT_SQL)) {
+                int pending = 0;
+                for (JSONObject photo : rows) {
+                    st.setString(1, photo.getString("description"));
+                    st.setString(2, photo.getString("email"));
+                    st.setString(3, photo.getString("s3Key"));
+                    st.setString(4, photo.getString("resizedKey"));
+                    st.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        st.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    st.executeBatch();
+                }
+                bumpPhotosVersion(conn);
+                conn.commit();
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw ex;
+            }
+        }
+    }
+
+    // Lets LambdaGetPhotosDB's PhotosCache see the change; skipped until V3 adds the counter table
+    private static void bumpPhotosVersion(Connection conn) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(
+                "UPDATE PhotosVersion SET Version = Version + 1 WHERE ID = 1")) {
+            st.executeUpdate();
+        } catch (SQLException e) {
+            // MySQL ER_NO_SUCH_TABLE
+            if (e.getErrorCode() != 1146) {
+                throw e;
+            }
+        }
     }
 
-    private static Properties setMySqlConnectionProperties() throws Exception {
-        Properties mysqlConnectionProperties = new Properties();
-        mysqlConnectionProperties.setProperty("useSSL", "true");
-        mysqlConnectionProperties.setProperty("user", DB_USER);
-        mysqlConnectionProperties.setProperty("password", generateAuthToken());
-        return mysqlConnectionProperties;
+    private static boolean isComplete(JSONObject photo) {
+        return photo != null
+                && photo.opt("description") instanceof String
+                && photo.opt("email") instanceof String
+                && photo.opt("s3Key") instanceof String
+                && photo.opt("resizedKey") instanceof String;
     }
 
-    private static String generateAuthToken() throws Exception {
-        RdsUtilities rdsUtilities = RdsUtilities.builder().build();
-        return rdsUtilities.generateAuthenticationToken(
-                GenerateAuthenticationTokenRequest.builder()
-                        .hostname(RDS_INSTANCE_HOSTNAME)
-                        .port(RDS_INSTANCE_PORT)
-                        .username(DB_USER)
-                        .region(Region.AP_SOUTHEAST_1)
-                        .credentialsProvider(DefaultCredentialsProvider.create())
-                        .build());
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LambdaInsertPhotosDBTest {
+
+    private LocalPhotosDb db;
+    private ConnectionPool original;
+    private LocalS3 s3;
+    private GalleryManifest originalManifest;
+    private final LambdaInsertPhotosDB handler = new LambdaInsertPhotosDB();
+
+    @Before
+    public void setUp() throws Exception {
+        db = new LocalPhotosDb();
+        original = LambdaInsertPhotosDB.pool;
+        LambdaInsertPhotosDB.pool = db.pool();
+        s3 = new LocalS3();
+        originalManifest = LambdaInsertPhotosDB.manifest;
+        LambdaInsertPhotosDB.manifest = new GalleryManifest(s3.client());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        LambdaInsertPhotosDB.pool.reset();
+        LambdaInsertPhotosDB.pool = original;
+        LambdaInsertPhotosDB.manifest = originalManifest;
+        s3.close();
+        db.close();
+    }
+
+    private static Map<String, Object> photo(int i) {
+        Map<String, Object> photo = new HashMap<>();
+        photo.put("description", "Photo " + i);
+        photo.put("email", "owner@example.com");
+        photo.put("s3Key", "photo" + i + ".png");
+        photo.put("resizedKey", "resized-photo" + i + ".png");
+        return photo;
+    }
+
+    private JSONObject insertBatch(int from, int count) {
+        JSONArray photos = new JSONArray();
+        for (int i = from; i < from + count; i++) {
+            photos.put(photo(i));
+        }
+        return new JSONObject(handler.handleRequest(Map.of("photos", photos.toList()), new TestContext()));
+    }
+
+    @Test
+    public void singleInsertReportsTheNewId() throws Exception {
+        JSONObject first = new JSONObject(handler.handleRequest(photo(1), new TestContext()));
+        JSONObject second = new JSONObject(handler.handleRequest(photo(2), new TestContext()));
+
+        assertEquals("ok", first.getString("status"));
+        assertEquals(first.getLong("id") + 1, second.getLong("id"));
+        assertEquals(2, db.version());
+
+        // A repeated key is reported, not acknowledged
+        JSONObject repeat = new JSONObject(handler.handleRequest(photo(1), new TestContext()));
+        assertEquals("error", repeat.getString("status"));
+        assertEquals(2, db.count());
+    }
+
+    @Test
+    public void batchReportsEachRowAndRollsBackTogether() throws Exception {
+        JSONArray photos = new JSONArray().put(photo(1)).put(Map.of("s3Key", "no-description.png")).put(photo(2));
+        JSONObject result = new JSONObject(handler.handleRequest(Map.of("photos", photos.toList()), new TestContext()));
+
+        assertEquals(2, result.getInt("inserted"));
+        assertEquals(1, result.getInt("rejected"));
+        JSONArray rows = result.getJSONArray("results");
+        assertEquals(List.of("ok", "invalid", "ok"), List.of(rows.getJSONObject(0).getString("status"),
+                rows.getJSONObject(1).getString("status"), rows.getJSONObject(2).getString("status")));
+
+        // photo2.png already exists, so photo3.png is rolled back with it
+        JSONObject failed = insertBatch(2, 2);
+        assertEquals("error", failed.getString("status"));
+        assertEquals("failed", failed.getJSONArray("results").getJSONObject(1).getString("status"));
+        assertEquals(2, db.count());
+        assertEquals(1, db.version());
+    }
+
+    @Test
+    public void batchInsertsAreInTheNextListing() {
+        GalleryManifest manifest = LambdaInsertPhotosDB.manifest;
+        insertBatch(1, 2);
+        // A listing builds the manifest from the table
+        manifest.rebuild(db::items, TestContext.LOGGER);
+
+        // A batch that inserts nothing leaves it alone
+        insertBatch(2, 1);
+        assertEquals(2, manifest.read().getJSONArray("items").length());
+
+        insertBatch(3, 2);
+        assertNull(manifest.read());
+
+        // The next listing finds no manifest and rebuilds it, new rows included
+        JSONArray items = manifest.rebuild(db::items, TestContext.LOGGER).getJSONArray("items");
+        assertEquals(4, items.length());
+        assertEquals("photo4.png", items.getJSONObject(3).getString("S3Key"));
+    }
+
+    // Prints rows/sec for batches of 1, 100 and 10k next to 100 single-record calls
+    @Test
+    public void reportsBatchThroughput() throws Exception {
+        insertBatch(-100, 100);
+        long single = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            handler.handleRequest(photo(1_000_000 + i), new TestContext());
+        }
+        double singleRate = 100 / ((System.nanoTime() - single) / 1e9);
+        System.out.printf("Single-record calls: %,.0f rows/s%n", singleRate);
+
+        int next = 0;
+        for (int size : new int[] {1, 100, 10_000}) {
+            long start = System.nanoTime();
+            JSONObject result = insertBatch(next, size);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            next += size;
+
+            assertEquals("ok", result.getString("status"));
+            assertEquals(size, result.getInt("inserted"));
+            System.out.printf("Batch of %,d: %,.0f rows/s (handler reports %,d)%n",
+                    size, size / seconds, result.getLong("rowsPerSecond"));
+        }
+        assertEquals(100 + 100 + 1 + 100 + 10_000, db.count());
+        assertTrue(db.version() > 0);
+    }
+}
@@ -0,0 +1,84 @@
+package vgu.cloud26;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/** In-memory H2 database in MySQL mode with the Photos and PhotosVersion tables. */
+final class LocalPhotosDb implements AutoCloseable {
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    final String url;
+    // Keeps the in-memory database alive until close()
+    private final Connection keepAlive;
+
+    LocalPhotosDb() throws SQLException {
+        url = "jdbc:h2:mem:photos" + counter.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        keepAlive = DriverManager.getConnection(url, "sa", "");
+        try (Statement st = keepAlive.createStatement()) {
+            st.execute("CREATE TABLE Photos ("
+                    + "ID INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+                    + "Description VARCHAR(1024), "
+                    + "Email VARCHAR(255), "
+                    + "S3Key VARCHAR(255) NOT NULL, "
+                    + "ResizedKey VARCHAR(255))");
+            // As in V4__photos_key_constraints.sql
+            st.execute("CREATE UNIQUE INDEX uq_photos_s3key ON Photos (S3Key)");
+            st.execute("CREATE TABLE PhotosVersion (ID TINYINT NOT NULL PRIMARY KEY, Version BIGINT NOT NULL)");
+            st.execute("INSERT INTO PhotosVersion (ID, Version) VALUES (1, 0)");
+        }
+    }
+
+    ConnectionPool pool() {
+        return new ConnectionPool(url, "sa", "");
+    }
+
+    long count() throws SQLException {
+        return queryLong("SELECT COUNT(*) FROM Photos");
+    }
+
+    long version() throws SQLException {
+        return queryLong("SELECT Version FROM PhotosVersion WHERE ID = 1");
+    }
+
+    // Every row as LambdaGetPhotosDB lists it, in ID order
+    JSONArray items() {
+        try (Statement st = keepAlive.createStatement();
+             ResultSet rs = st.executeQuery("SELECT ID, Description, Email, S3Key FROM Photos ORDER BY ID")) {
+            JSONArray items = new JSONArray();
+            while (rs.next()) {
+                items.put(new JSONObject()
+                        .put("ID", rs.getLong("ID"))
+                        .put("Description", rs.getString("Description"))
+                        .put("Email", rs.getString("Email"))
+                        .put("S3Key", rs.getString("S3Key")));
+            }
+            return items;
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Statement st = keepAlive.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try (Statement st = keepAlive.createStatement()) {
+            st.execute("SHUTDOWN");
+        }
+        keepAlive.close();
+    }
+}
@@ -0,0 +1,93 @@
+package vgu.cloud26;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * Version of the "cloud26key" parameter, which keys VerificationCache.
+ *
+ * Asks the Parameters and Secrets extension with withDecryption=false, so
+ * this function needs ssm:GetParameter but no decrypt permission and never
+ * holds the signing key. The version is kept for SECRET_TTL_SECONDS (default
+ * 300); when it cannot be read, 0 is returned and the cache is bypassed.
+ * SECRETS_EXTENSION_ENDPOINT points at the extension (default
+ * http://localhost:2773).
+ */
+public final class SecretVersion {
+
+    private static final String PARAMETER_NAME = "cloud26key";
+    private static final long TTL_NANOS = Duration.ofSeconds(
+            Long.parseLong(envOrDefault("SECRET_TTL_SECONDS", "300"))).toNanos();
+
+    // One client for the whole container instead of one per request
+    private static final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    // Overridden by the tests, which run a local stand-in for the extension
+    static volatile String endpoint = envOrDefault("SECRETS_EXTENSION_ENDPOINT", "http://localhost:2773");
+
+    private static long cachedVersion;
+    private static long fetchedAt;
+
+    private SecretVersion() {
+    }
+
+    public static synchronized long get(LambdaLogger logger) {
+        long now = System.nanoTime();
+        if (cachedVersion > 0 && now - fetchedAt < TTL_NANOS) {
+            return cachedVersion;
+        }
+        try {
+            cachedVersion = fetch();
+            fetchedAt = now;
+            return cachedVersion;
+        } catch (IOException | InterruptedException | JSONException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.log("Secret version unavailable, not using the cache: " + e.getMessage());
+            cachedVersion = 0L;
+            return 0L;
+        }
+    }
+
+    // Forget the version, e.g. after a SnapStart restore
+    public static synchronized void invalidate() {
+        cachedVersion = 0L;
+        fetchedAt = 0L;
+    }
+
+    private static long fetch() throws IOException, InterruptedException, JSONException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(endpoint
+                        + "/systemsmanager/parameters/get/?name=" + PARAMETER_NAME + "&withDecryption=false"))
+                .header("Accept", "application/json")
+                .header("X-Aws-Parameters-Secrets-Token", envOrDefault("AWS_SESSION_TOKEN", ""))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Secrets extension returned HTTP " + response.statusCode());
+        }
+        // Only the version is read; Value is still encrypted
+        return new JSONObject(response.body()).getJSONObject("Parameter").optLong("Version", 0L);
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
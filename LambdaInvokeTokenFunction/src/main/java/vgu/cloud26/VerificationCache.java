@@ -0,0 +1,127 @@
+package vgu.cloud26;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of verification outcomes, shared across warm invocations.
+ *
+ * Entries are keyed by SHA-256(email, token) so raw tokens are never kept.
+ * Valid and invalid results expire separately (VERIFY_CACHE_POSITIVE_TTL_SECONDS,
+ * default 300, and VERIFY_CACHE_NEGATIVE_TTL_SECONDS, default 30). Each entry
+ * records the secret version the verifier used, and a lookup only hits when
+ * the caller's current secret version is the same, so a rotated secret is
+ * noticed on the next lookup rather than the next miss. Version 0 means the
+ * version is unknown and bypasses the cache.
+ */
+public final class VerificationCache {
+
+    private static final int MAX_ENTRIES = Integer.parseInt(envOrDefault("VERIFY_CACHE_MAX_ENTRIES", "10000"));
+    private static final long POSITIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(
+            Long.parseLong(envOrDefault("VERIFY_CACHE_POSITIVE_TTL_SECONDS", "300")));
+    private static final long NEGATIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(
+            Long.parseLong(envOrDefault("VERIFY_CACHE_NEGATIVE_TTL_SECONDS", "30")));
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    // Newest secret version seen; parameter versions only go up
+    private long secretVersion;
+
+    // Cached outcome under this secret version, or null when unknown, expired or from another version
+    public synchronized Boolean get(long version, String email, String token) {
+        if (version <= 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+        advance(version);
+        String key = hash(email, token);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version != version || System.nanoTime() - entry.expiresAt > 0) {
+            if (entry != null) {
+                entries.remove(key);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.valid;
+    }
+
+    // version is the one the verifier reported; older versions are not stored
+    public synchronized void put(long version, String email, String token, boolean valid) {
+        if (version <= 0) {
+            return;
+        }
+        advance(version);
+        if (version < secretVersion) {
+            return;
+        }
+        long ttl = valid ? POSITIVE_TTL_NANOS : NEGATIVE_TTL_NANOS;
+        entries.put(hash(email, token), new Entry(valid, version, System.nanoTime() + ttl));
+    }
+
+    public String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        long total = h + m;
+        return "hits=" + h
+                + " misses=" + m
+                + " hitRate=" + (total == 0 ? "0.00" : String.format("%.2f", (double) h / total))
+                + " invalidations=" + invalidations.get();
+    }
+
+    // Drops every entry once a newer secret version shows up
+    private void advance(long version) {
+        if (version <= secretVersion) {
+            return;
+        }
+        if (secretVersion != 0) {
+            entries.clear();
+            invalidations.incrementAndGet();
+        }
+        secretVersion = version;
+    }
+
+    private static String hash(String email, String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(email.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    private static final class Entry {
+        private final boolean valid;
+        private final long version;
+        private final long expiresAt;
+
+        private Entry(boolean valid, long version, long expiresAt) {
+            this.valid = valid;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
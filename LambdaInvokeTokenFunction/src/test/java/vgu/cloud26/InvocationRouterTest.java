@@ -0,0 +1,60 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import software.amazon.awssdk.services.lambda.LambdaClient;
+
+public class InvocationRouterTest {
+
+    private LocalLambda lambda;
+    private LambdaClient client;
+    private InvocationRouter router;
+
+    @Before
+    public void setUp() throws Exception {
+        lambda = new LocalLambda();
+        client = lambda.client();
+        router = new InvocationRouter(client);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        lambda.close();
+    }
+
+    @Test
+    public void sendsThePayloadAndReturnsTheResponseUnchanged() {
+        lambda.register("LambdaVerifyToken", payload -> "{\"echo\":" + payload + "}");
+        String payload = new JSONObject().put("body", "{\"email\":\"a@b.c\",\"token\":\"é\"}").toString();
+
+        String response = router.invoke("LambdaVerifyToken", payload);
+
+        assertEquals(payload, new JSONObject(response).getJSONObject("echo").toString());
+        assertEquals(List.of("LambdaVerifyToken"), lambda.calls());
+    }
+
+    @Test
+    public void stringResultsStayJsonQuoted() {
+        lambda.register("LambdaCreateToken", payload -> "\"abc=\"");
+        assertEquals("\"abc=\"", router.invoke("LambdaCreateToken", "{}"));
+    }
+
+    @Test
+    public void handlerErrorsComeBackAsErrorPayload() {
+        lambda.register("LambdaVerifyToken", payload -> {
+            throw new IllegalStateException("boom");
+        });
+        JSONObject error = new JSONObject(router.invoke("LambdaVerifyToken", "{}"));
+        assertEquals("boom", error.getString("errorMessage"));
+        assertTrue(error.getString("errorType").endsWith("IllegalStateException"));
+    }
+}
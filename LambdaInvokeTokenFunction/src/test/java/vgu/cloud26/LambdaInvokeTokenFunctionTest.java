@@ -0,0 +1,173 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import software.amazon.awssdk.services.lambda.LambdaClient;
+
+/**
+ * The handler against LocalLambda (LambdaVerifyToken) and
+ * LocalSecretsExtension (this function's view of the secret version).
+ */
+public class LambdaInvokeTokenFunctionTest {
+
+    private LocalLambda lambda;
+    private LambdaClient client;
+    private LocalSecretsExtension extension;
+    private LambdaInvokeTokenFunction handler;
+
+    // Version the fake verifier reports, and an override for its raw response
+    private final AtomicLong verifierVersion = new AtomicLong(1L);
+    private final AtomicReference<String> verifierOverride = new AtomicReference<>();
+
+    @Before
+    public void setUp() throws Exception {
+        lambda = new LocalLambda();
+        lambda.register("LambdaVerifyToken", this::verifier);
+        client = lambda.client();
+        extension = new LocalSecretsExtension();
+        SecretVersion.endpoint = extension.endpoint();
+        SecretVersion.invalidate();
+        handler = new LambdaInvokeTokenFunction(new InvocationRouter(client));
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        lambda.close();
+        extension.close();
+        SecretVersion.invalidate();
+    }
+
+    // Valid when token == "good-" + email, answered in LambdaVerifyToken's withVersion format
+    private String verifier(String payload) {
+        if (verifierOverride.get() != null) {
+            return verifierOverride.get();
+        }
+        JSONObject data = new JSONObject(new JSONObject(payload).getString("body"));
+        if (data.has("items")) {
+            JSONArray results = new JSONArray();
+            for (Object item : data.getJSONArray("items")) {
+                JSONObject pair = (JSONObject) item;
+                results.put(new JSONObject()
+                        .put("email", pair.getString("email"))
+                        .put("valid", isGood(pair)));
+            }
+            return JSONObject.quote(new JSONObject()
+                    .put("results", results)
+                    .put("secretVersion", verifierVersion.get())
+                    .toString());
+        }
+        return JSONObject.quote(new JSONObject()
+                .put("valid", isGood(data))
+                .put("secretVersion", verifierVersion.get())
+                .toString());
+    }
+
+    private static boolean isGood(JSONObject pair) {
+        return pair.optString("token").equals("good-" + pair.getString("email"));
+    }
+
+    private APIGatewayProxyResponseEvent call(JSONObject body) {
+        return handler.handleRequest(new APIGatewayProxyRequestEvent().withBody(body.toString()), new TestContext());
+    }
+
+    private String verify(String email, String token) {
+        APIGatewayProxyResponseEvent response = call(new JSONObject()
+                .put("action", "verify").put("email", email).put("token", token));
+        assertEquals(200, (int) response.getStatusCode());
+        return new JSONObject(response.getBody()).getString("auth_status");
+    }
+
+    @Test
+    public void repeatedVerifyIsAnsweredFromTheCache() {
+        assertEquals("true", verify("a@b.c", "good-a@b.c"));
+        assertEquals("true", verify("a@b.c", "good-a@b.c"));
+        assertEquals(1, lambda.calls().size());
+    }
+
+    @Test
+    public void cacheHitIsNotServedAfterTheSecretRotates() {
+        assertEquals("true", verify("a@b.c", "good-a@b.c"));
+
+        // Rotation: this function's SecretVersion picks up version 2
+        extension.set("secret-2", 2L);
+        verifierVersion.set(2L);
+        SecretVersion.invalidate();
+
+        assertEquals("true", verify("a@b.c", "good-a@b.c"));
+        assertEquals(2, lambda.calls().size());
+        assertEquals("true", verify("a@b.c", "good-a@b.c"));
+        assertEquals(2, lambda.calls().size());
+    }
+
+    @Test
+    public void onlyTheVersionIsReadNeverTheDecryptedSecret() {
+        verify("a@b.c", "good-a@b.c");
+
+        assertEquals(1, extension.requests());
+        assertTrue(extension.lastQuery(), extension.lastQuery().contains("withDecryption=false"));
+    }
+
+    @Test
+    public void withoutASecretVersionEveryCallGoesToTheVerifier() {
+        extension.setFailing(true);
+        verify("a@b.c", "good-a@b.c");
+        verify("a@b.c", "good-a@b.c");
+        assertEquals(2, lambda.calls().size());
+    }
+
+    @Test
+    public void batchMergesCachedAndVerifiedResultsInOrder() {
+        verify("b@b.c", "good-b@b.c");
+        APIGatewayProxyResponseEvent response = call(new JSONObject()
+                .put("action", "verify")
+                .put("items", new JSONArray()
+                        .put(new JSONObject().put("email", "a@b.c").put("token", "bad"))
+                        .put(new JSONObject().put("email", "b@b.c").put("token", "good-b@b.c"))
+                        .put(new JSONObject().put("email", "c@b.c").put("token", "good-c@b.c"))));
+
+        assertEquals(200, (int) response.getStatusCode());
+        JSONArray results = new JSONObject(response.getBody()).getJSONArray("results");
+        assertFalse(results.getJSONObject(0).getBoolean("valid"));
+        assertTrue(results.getJSONObject(1).getBoolean("valid"));
+        assertEquals("c@b.c", results.getJSONObject(2).getString("email"));
+        assertTrue(results.getJSONObject(2).getBoolean("valid"));
+        // One single verify, then one batch for the two misses
+        assertEquals(2, lambda.calls().size());
+    }
+
+    @Test
+    public void verifierErrorFailsTheBatch() {
+        verifierOverride.set("{\"errorMessage\":\"Task timed out\",\"errorType\":\"Timeout\"}");
+        assertEquals(502, (int) batchOfOne().getStatusCode());
+
+        verifierOverride.set("\"false\"");
+        assertEquals(502, (int) batchOfOne().getStatusCode());
+
+        // Nothing was cached from the failures
+        verifierOverride.set(null);
+        assertEquals(200, (int) batchOfOne().getStatusCode());
+        assertEquals(3, lambda.calls().size());
+    }
+
+    private APIGatewayProxyResponseEvent batchOfOne() {
+        return call(new JSONObject()
+                .put("action", "verify")
+                .put("items", new JSONArray()
+                        .put(new JSONObject().put("email", "a@b.c").put("token", "good-a@b.c"))));
+    }
+}
@@ -0,0 +1,82 @@
+package vgu.cloud26;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Parameters and Secrets extension: answers
+ * /systemsmanager/parameters/get/ on an ephemeral port the way the extension
+ * does, and can be switched to fail. Without withDecryption=true the value
+ * comes back encrypted, as for a SecureString.
+ */
+final class LocalSecretsExtension implements AutoCloseable {
+
+    private final HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String lastQuery;
+    private volatile String value = "secret-1";
+    private volatile long version = 1L;
+    private volatile boolean failing;
+
+    LocalSecretsExtension() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/systemsmanager/parameters/get/", exchange -> {
+            requests.incrementAndGet();
+            lastQuery = exchange.getRequestURI().getQuery();
+            boolean decrypt = lastQuery != null && lastQuery.contains("withDecryption=true");
+            byte[] body;
+            int status;
+            if (failing) {
+                status = 500;
+                body = "extension unavailable".getBytes(StandardCharsets.UTF_8);
+            } else {
+                status = 200;
+                body = new JSONObject()
+                        .put("Parameter", new JSONObject()
+                                .put("Name", "cloud26key")
+                                .put("Value", decrypt ? value : "encrypted:" + value)
+                                .put("Version", version))
+                        .toString()
+                        .getBytes(StandardCharsets.UTF_8);
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void set(String value, long version) {
+        this.value = value;
+        this.version = version;
+    }
+
+    void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    int requests() {
+        return requests.get();
+    }
+
+    String lastQuery() {
+        return lastQuery;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,37 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class VerificationCacheTest {
+
+    private final VerificationCache cache = new VerificationCache();
+
+    @Test
+    public void hitsOnlyUnderTheVersionTheResultWasCachedWith() {
+        cache.put(1L, "a@b.c", "t", true);
+        assertEquals(Boolean.TRUE, cache.get(1L, "a@b.c", "t"));
+        assertNull(cache.get(1L, "a@b.c", "other"));
+
+        // The caller has seen the rotation: the old result must not be served
+        assertNull(cache.get(2L, "a@b.c", "t"));
+        assertNull(cache.get(1L, "a@b.c", "t"));
+    }
+
+    @Test
+    public void resultsFromAnOlderVersionAreNotStored() {
+        cache.get(2L, "x", "y");
+        cache.put(1L, "a@b.c", "t", true);
+        assertNull(cache.get(1L, "a@b.c", "t"));
+        assertNull(cache.get(2L, "a@b.c", "t"));
+    }
+
+    @Test
+    public void unknownVersionBypassesTheCache() {
+        cache.put(0L, "a@b.c", "t", true);
+        cache.put(1L, "a@b.c", "t", true);
+        assertNull(cache.get(0L, "a@b.c", "t"));
+    }
+}
@@ -6,6 +6,7 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Base64;
 import java.util.Map;
 
@@ -19,6 +20,7 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetUrlRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.core.sync.RequestBody;
 
@@ -31,10 +33,41 @@ import software.amazon.awssdk.core.sync.RequestBody;
 public class LambdaResizer implements RequestHandler<Map<String, Object>, String> {
 
     private static final float MAX_DIM = 100;
-    // Static client for better performance (connection reuse)
-    private static final S3Client s3 = S3Client.builder()
-            .region(Region.AP_SOUTHEAST_1)
-            .build();
+    // Static client for better performance (connection reuse), rebuilt after a SnapStart restore
+    private static volatile S3Client s3 = newS3Client();
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaResizer", LambdaResizer::prime, LambdaResizer::restore);
+    }
+
+    private static void prime() {
+        // Loads the ImageIO codecs and Java2D pipeline used by the resize
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", png);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+            ImageIO.write(new LambdaResizer().resize(decoded), "jpg", new ByteArrayOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        PutObjectRequest.builder().bucket("resized-bucket-vts253").key("resized-prime.png").contentType("image/jpeg").build();
+        // Endpoint resolution on the real client, no network call
+        s3.utilities().getUrl(GetUrlRequest.builder().bucket("resized-bucket-vts253").key("resized-prime.png").build());
+    }
+
+    // A fresh client after a SnapStart restore, so nothing from before the snapshot is reused
+    private static void restore() {
+        S3Client old = s3;
+        s3 = newS3Client();
+        old.close();
+    }
+
+    private static S3Client newS3Client() {
+        return S3Client.builder()
+                .region(Region.AP_SOUTHEAST_1)
+                .build();
+    }
 
     @Override
     public String handleRequest(Map<String, Object> input, Context ctx) {
@@ -1,12 +1,7 @@
 package vgu.cloud26;
 
-import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 import org.json.JSONObject;
 
@@ -17,6 +12,21 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 
 public class LambdaSendToken implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaSendToken", LambdaSendToken::prime, null);
+    }
+
+    private static void prime() {
+        new JSONObject().put("token", "prime").toString();
+        new APIGatewayProxyResponseEvent().withStatusCode(200);
+        try {
+            TokenEngine.generate("prime@example.com", "prime-key");
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
         // Parsing input
@@ -39,14 +49,7 @@ public class LambdaSendToken implements RequestHandler<APIGatewayProxyRequestEve
 
     public static String generateSecureToken(String data, String key, Context context) {
         try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            SecretKeySpec secretKeySpec = new SecretKeySpec(
-                key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"
-            );
-            mac.init(secretKeySpec);
-            byte[] hmacBytes = mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
-            
-            return Base64.getEncoder().encodeToString(hmacBytes);
+            return TokenEngine.generate(data, key);
         } catch (IllegalStateException | InvalidKeyException | NoSuchAlgorithmException e) {
             context.getLogger().log("Error: " + e.getMessage());
             return null;
@@ -4,18 +4,47 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.json.JSONException;
 import org.json.JSONObject;
 import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.lambda.LambdaClient;
 import software.amazon.awssdk.services.lambda.model.InvokeRequest;
-import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+import software.amazon.awssdk.services.s3.S3Client;
 
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 public class LambdaUploadOrchestration implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
-    private final LambdaClient lambda = LambdaClient.create();
+    private static final InvocationRouter router = new InvocationRouter(LambdaClient::create);
+    // Rebuilt, with its S3 client, after a SnapStart restore
+    private static volatile S3Client s3 = S3Client.builder().region(Region.AP_SOUTHEAST_1).build();
+    private static volatile GalleryManifest manifest = new GalleryManifest(s3);
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaUploadOrchestration", LambdaUploadOrchestration::prime,
+                LambdaUploadOrchestration::restore);
+    }
+
+    private static void prime() {
+        InvokeRequest.builder()
+                .functionName("LambdaPriming")
+                .payload(SdkBytes.fromUtf8String(new JSONObject().put("body", "{}").toString()))
+                .build();
+        // Starts the common pool used for the parallel fan-out
+        CompletableFuture.supplyAsync(() -> "prime").join();
+    }
+
+    // Fresh clients after a SnapStart restore, so nothing from before the snapshot is reused
+    private static void restore() {
+        router.reset();
+        S3Client old = s3;
+        s3 = S3Client.builder().region(Region.AP_SOUTHEAST_1).build();
+        manifest = new GalleryManifest(s3);
+        old.close();
+    }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
@@ -42,11 +71,33 @@ public class LambdaUploadOrchestration implements RequestHandler<APIGatewayProxy
         // Wait for all to finish
         CompletableFuture.allOf(dbCall, originalCall, resizedCall).join();
 
-        // 4. Build Response
+        // 4. Patch the gallery manifest so the list endpoint sees the new photo, but only once
+        // the row and the original are both stored
+        boolean manifestUpdated = false;
+        JSONObject dbResult = payloadObject(dbCall.join());
+        boolean rowStored = dbResult != null && "ok".equals(dbResult.optString("status"));
+        if (rowStored && dbResult.has("id") && !isError(originalCall.join())) {
+            try {
+                manifestUpdated = manifest.add(GalleryManifest.item(dbResult.getLong("id"), srcKey,
+                        body.getString("description"), userEmail), context.getLogger());
+            } catch (RuntimeException e) {
+                context.getLogger().log("Gallery manifest update failed: " + e);
+                manifest.invalidate(context.getLogger());
+            }
+        } else if (rowStored) {
+            // No original to show, or no ID to place the entry by:
+            // the next listing rebuilds the manifest from the table
+            manifest.invalidate(context.getLogger());
+        } else {
+            context.getLogger().log("Photo record not stored, gallery manifest left as is: " + dbCall.join());
+        }
+
+        // 5. Build Response
         JSONObject result = new JSONObject()
                 .put("db", dbCall.join())
                 .put("uploadOriginal", originalCall.join())
-                .put("uploadResized", resizedCall.join());
+                .put("uploadResized", resizedCall.join())
+                .put("manifestUpdated", manifestUpdated);
 
         return new APIGatewayProxyResponseEvent()
                 .withStatusCode(200)
@@ -56,13 +107,22 @@ public class LambdaUploadOrchestration implements RequestHandler<APIGatewayProxy
                 ));
     }
 
+    // The payload as a JSON object, or null when the callee answered with something else
+    private static JSONObject payloadObject(String payload) {
+        try {
+            return new JSONObject(payload);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    // A handler that threw comes back as the runtime's {errorMessage, errorType}
+    private static boolean isError(String payload) {
+        JSONObject object = payloadObject(payload);
+        return object != null && object.has("errorMessage");
+    }
+
     private CompletableFuture<String> invokeAsync(String functionName, JSONObject payload) {
-        return CompletableFuture.supplyAsync(() -> {
-            InvokeResponse resp = lambda.invoke(InvokeRequest.builder()
-                    .functionName(functionName)
-                    .payload(SdkBytes.fromUtf8String(payload.toString()))
-                    .build());
-            return resp.payload().asUtf8String();
-        });
+        return CompletableFuture.supplyAsync(() -> router.invoke(functionName, payload.toString()));
     }
 }
\ No newline at end of file
@@ -284,6 +284,7 @@ import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.*;
+import software.amazon.awssdk.services.s3.model.GetUrlRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
 import javax.imageio.ImageIO;
@@ -291,11 +292,10 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.Base64;
 import java.util.Map;
-import java.util.Properties;
 
 import software.amazon.awssdk.services.rds.RdsUtilities;
 import software.amazon.awssdk.services.rds.model.GenerateAuthenticationTokenRequest;
@@ -311,11 +311,58 @@ public class LambdaUploadPhotoDB implements RequestHandler<APIGatewayProxyReques
     private static final String DB_USER = "cloud26";
     private static final String JDBC_URL =
             "jdbc:mysql://" + DB_HOST + ":" + DB_PORT + "/Cloud26";
+    // Kept across warm invocations
+    private static final ConnectionPool pool = new ConnectionPool(JDBC_URL, DB_HOST, DB_PORT, DB_USER);
+
+    // Static so the primed client is the one requests use; rebuilt after a SnapStart restore
+    private static volatile S3Client s3 = newS3Client();
+    // This handler does not patch the gallery manifest, so it deletes it after each insert
+    private static volatile GalleryManifest manifest = new GalleryManifest(s3);
+
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        // Restored copies must not share connections or the IAM token
+        Priming.register("LambdaUploadPhotoDB", LambdaUploadPhotoDB::prime, LambdaUploadPhotoDB::restore);
+    }
 
-    private final S3Client s3 = S3Client.builder()
-            .region(REGION)
-            .credentialsProvider(DefaultCredentialsProvider.create())
-            .build();
+    private static void prime() {
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        // Builds the signer without generating a token, credentials come after restore
+        RdsUtilities.builder().region(Region.AP_SOUTHEAST_1).build();
+        GenerateAuthenticationTokenRequest.builder()
+                .hostname(DB_HOST)
+                .port(DB_PORT)
+                .username(DB_USER)
+                .build();
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", png);
+            new LambdaUploadPhotoDB().resizeImage(png.toByteArray());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        // Endpoint resolution on the real client, no network call
+        s3.utilities().getUrl(GetUrlRequest.builder().bucket(ORIGINAL_BUCKET).key("prime.png").build());
+    }
+
+    private static void restore() {
+        pool.reset();
+        S3Client old = s3;
+        s3 = newS3Client();
+        manifest = new GalleryManifest(s3);
+        old.close();
+    }
+
+    private static S3Client newS3Client() {
+        return S3Client.builder()
+                .region(REGION)
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+    }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
@@ -347,16 +394,24 @@ public class LambdaUploadPhotoDB implements RequestHandler<APIGatewayProxyReques
             resizedStatus = "success";
 
             // ===== Activity 1: insert DB =====
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            try (Connection conn = DriverManager.getConnection(JDBC_URL, dbProps())) {
-                String sql = "INSERT INTO Photos (Description, S3Key) VALUES (?, ?)";
+            try (Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
+                // Same four columns as LambdaInsertPhotosDB; email is optional here
+                String sql = "INSERT INTO Photos (Description, Email, S3Key, ResizedKey) VALUES (?, ?, ?, ?)";
                 try (PreparedStatement ps = conn.prepareStatement(sql)) {
                     ps.setString(1, description);
-                    ps.setString(2, key);
+                    ps.setString(2, json.optString("email", null));
+                    ps.setString(3, key);
+                    ps.setString(4, resizedKey);
                     ps.executeUpdate();
-                    dbStatus = "success";
                 }
+                bumpPhotosVersion(conn);
+                conn.commit();
+                dbStatus = "success";
             }
+            context.getLogger().log("DB pool " + pool.stats());
+            // The next listing rebuilds it from the table, this photo included
+            manifest.invalidate(context.getLogger());
 
             // ===== Response =====
             JSONObject result = new JSONObject();
@@ -401,24 +456,17 @@ public class LambdaUploadPhotoDB implements RequestHandler<APIGatewayProxyReques
         return out.toByteArray();
     }
 
-    private static Properties dbProps() throws Exception {
-        Properties p = new Properties();
-        p.setProperty("user", DB_USER);
-        p.setProperty("useSSL", "true");
-        p.setProperty("password", authToken());
-        return p;
-    }
-
-    private static String authToken() throws Exception {
-        return RdsUtilities.builder().build()
-                .generateAuthenticationToken(
-                        GenerateAuthenticationTokenRequest.builder()
-                                .hostname(DB_HOST)
-                                .port(DB_PORT)
-                                .username(DB_USER)
-                                .region(REGION)
-                                .credentialsProvider(DefaultCredentialsProvider.create())
-                                .build());
+    // Lets LambdaGetPhotosDB's PhotosCache see the change; skipped until V3 adds the counter table
+    private static void bumpPhotosVersion(Connection conn) throws SQLException {
+        try (PreparedStatement st = conn.prepareStatement(
+                "UPDATE PhotosVersion SET Version = Version + 1 WHERE ID = 1")) {
+            st.executeUpdate();
+        } catch (SQLException e) {
+            // MySQL ER_NO_SUCH_TABLE
+            if (e.getErrorCode() != 1146) {
+                throw e;
+            }
+        }
     }
 
     private APIGatewayProxyResponseEvent response(int code, String body) {
@@ -1,20 +1,12 @@
 package vgu.cloud26;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.time.Duration;
-import java.util.Base64;
+import java.util.List;
 import java.util.Map;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -24,13 +16,33 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 
 public class LambdaVerifyToken implements RequestHandler<Object, String> {
 
+    static {
+        // SnapStart priming: walk the first-request code paths before the snapshot
+        Priming.register("LambdaVerifyToken", LambdaVerifyToken::prime, () -> SecretProvider.invalidate());
+    }
+
+    private static void prime() {
+        new JSONArray("[{\"email\":\"prime@example.com\",\"token\":\"prime\"}]").getJSONObject(0);
+        try {
+            TokenEngine.verify("prime@example.com", "prime-key", "prime");
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public String handleRequest(Object input, Context context) {
         LambdaLogger logger = context.getLogger();
         String email = "";
         String ProvidedToken = "";
+        boolean withVersion = false;
 
         try {
+            // Batch: a raw array of {email, token} pairs
+            if (input instanceof List) {
+                return verifyBatch(new JSONArray((List<?>) input), false, logger);
+            }
+
             JSONObject event;
             if (input instanceof Map) {
                 event = new JSONObject((Map<?, ?>) input);
@@ -38,21 +50,27 @@ public class LambdaVerifyToken implements RequestHandler<Object, String> {
                 event = new JSONObject(input.toString());
             }
 
+            JSONObject innerData = event;
             if (event.has("body")) {
                 Object bodyObj = event.get("body");
-                JSONObject innerData;
                 if (bodyObj instanceof String) {
                     innerData = new JSONObject((String) bodyObj);
                 } else {
                     innerData = new JSONObject((Map<?, ?>) bodyObj);
                 }
-                email = innerData.optString("email");
-                ProvidedToken = innerData.optString("token");
-            } else {
-                email = event.optString("email");
-                ProvidedToken = event.optString("token");
             }
 
+            // Callers that cache results ask for the secret version as well
+            withVersion = innerData.optBoolean("withVersion", false);
+
+            // Batch: { "items": [ {email, token}, ... ] }
+            if (innerData.has("items")) {
+                return verifyBatch(innerData.getJSONArray("items"), withVersion, logger);
+            }
+
+            email = innerData.optString("email");
+            ProvidedToken = innerData.optString("token");
+
             if (email.isEmpty() || ProvidedToken.isEmpty()) {
                 logger.log("Missing email or token in input");
                 return "false";
@@ -64,37 +82,21 @@ public class LambdaVerifyToken implements RequestHandler<Object, String> {
         }
 
         try {
-            HttpClient client = HttpClient.newBuilder()
-                        .version(HttpClient.Version.HTTP_1_1)
-                        .followRedirects(HttpClient.Redirect.NORMAL)
-                        .connectTimeout(Duration.ofSeconds(10))
-                        .build();
-
-            String sessionToken = System.getenv("AWS_SESSION_TOKEN");
-            HttpRequest requestParameter = HttpRequest.newBuilder()
-                        .uri(URI.create("http://localhost:2773/systemsmanager/parameters/get/?name=cloud26key&withDecryption=true"))
-                        .header("Accept", "application/json")
-                        .header("X-Aws-Parameters-Secrets-Token", sessionToken)
-                        .GET()
-                        .build();
-
-            HttpResponse<String> responseParameter = client.send(requestParameter, HttpResponse.BodyHandlers.ofString());
-            
-            String jsonResponse = responseParameter.body();
-            JSONObject jsonBody = new JSONObject(jsonResponse);
-            JSONObject parameter = (JSONObject) jsonBody.get("Parameter");
-            String key = (String) parameter.get("Value");
-            
-            logger.log("My secret key retrieved successfully");
+            String key = SecretProvider.getSecret(logger);
+            logger.log("My secret key retrieved (" + SecretProvider.stats() + ")");
 
-            // 2. Re-calculate the token
-            String expectedToken = generateSecureToken(email, key, logger);
-
-            // 3. Comparison
-            boolean isValid = expectedToken != null && expectedToken.equals(ProvidedToken);
+            // 2. Re-calculate the token and compare in constant time
+            boolean isValid = verifySecureToken(email, ProvidedToken, key, logger);
 
             logger.log("Verification result: " + isValid);
             
+            if (withVersion) {
+                return new JSONObject()
+                        .put("valid", isValid)
+                        .put("secretVersion", SecretProvider.getVersion())
+                        .toString();
+            }
+
             // Return simple "true" or "false" string to match your Orchestrator switch-case
             return String.valueOf(isValid);
 
@@ -104,19 +106,70 @@ public class LambdaVerifyToken implements RequestHandler<Object, String> {
         }
     }
 
+    // Verifies every pair with one secret lookup; results keep the input order
+    private String verifyBatch(JSONArray items, boolean withVersion, LambdaLogger logger) {
+        String key = null;
+        try {
+            key = SecretProvider.getSecret(logger);
+        } catch (IOException | InterruptedException | JSONException e) {
+            logger.log("Verify error: " + e.getMessage());
+        }
+
+        // Written by hand: building a JSONObject per result cost more than the HMACs
+        StringBuilder results = new StringBuilder(items.length() * 48 + 2).append('[');
+        int validCount = 0;
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.optJSONObject(i);
+            String email = item == null ? "" : item.optString("email");
+            String token = item == null ? "" : item.optString("token");
+
+            boolean isValid = key != null && !email.isEmpty() && !token.isEmpty()
+                    && verifySecureToken(email, token, key, logger);
+            if (isValid) {
+                validCount++;
+            }
+            results.append(i == 0 ? "" : ",")
+                    .append("{\"email\":");
+            appendQuoted(results, email)
+                    .append(",\"valid\":").append(isValid).append('}');
+        }
+        results.append(']');
+
+        logger.log("Batch verification: " + validCount + "/" + items.length() + " valid");
+        if (withVersion) {
+            // Version 0 tells the caller the secret was unavailable
+            return "{\"results\":" + results
+                    + ",\"secretVersion\":" + (key == null ? 0L : SecretProvider.getVersion()) + "}";
+        }
+        return results.toString();
+    }
+
+    // Plain addresses are copied as they are; anything else goes through JSONObject.quote
+    private static StringBuilder appendQuoted(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e || c == '"' || c == '\\' || c == '/') {
+                return out.append(JSONObject.quote(value));
+            }
+        }
+        return out.append('"').append(value).append('"');
+    }
+
     public static String generateSecureToken(String data, String key, LambdaLogger logger) {
         try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            SecretKeySpec secretKeySpec = new SecretKeySpec(
-                key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"
-            );
-            mac.init(secretKeySpec);
-            
-            byte[] hmacBytes = mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(hmacBytes);
+            return TokenEngine.generate(data, key);
         } catch (IllegalStateException | InvalidKeyException | NoSuchAlgorithmException e) {
             logger.log("HMAC Error: " + e.getMessage());
             return null;
         }
     }
+
+    public static boolean verifySecureToken(String data, String token, String key, LambdaLogger logger) {
+        try {
+            return TokenEngine.verify(data, key, token);
+        } catch (IllegalStateException | InvalidKeyException | NoSuchAlgorithmException e) {
+            logger.log("HMAC Error: " + e.getMessage());
+            return false;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+package vgu.cloud26;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * Keeps the "cloud26key" parameter in a static cache so warm invocations
+ * do not go back to the Parameters and Secrets extension every time.
+ *
+ * SECRET_TTL_SECONDS controls how long a value is served (default 300). Once
+ * 80% of it has passed, the next call refreshes the value inside that
+ * invocation, because a background thread would be frozen between
+ * invocations. If the extension fails, the last good value is served for up
+ * to SECRET_MAX_STALE_SECONDS past its TTL (default 900). Failed fetches are
+ * retried with exponential backoff starting at SECRET_RETRY_BACKOFF_MS
+ * (default 1000, capped at one minute), not on every call.
+ * SECRETS_EXTENSION_ENDPOINT points at the extension (default
+ * http://localhost:2773).
+ */
+public final class SecretProvider {
+
+    private static final String PARAMETER_NAME = "cloud26key";
+    private static final long TTL_NANOS = Duration.ofSeconds(
+            Long.parseLong(envOrDefault("SECRET_TTL_SECONDS", "300"))).toNanos();
+    // Once this share of the TTL has passed, the next call refreshes early
+    private static final long REFRESH_AHEAD_NANOS = TTL_NANOS * 4 / 5;
+    private static final long MAX_STALE_NANOS = Duration.ofSeconds(
+            Long.parseLong(envOrDefault("SECRET_MAX_STALE_SECONDS", "900"))).toNanos();
+    private static final long BACKOFF_NANOS = Duration.ofMillis(
+            Long.parseLong(envOrDefault("SECRET_RETRY_BACKOFF_MS", "1000"))).toNanos();
+    private static final long MAX_BACKOFF_NANOS = Duration.ofMinutes(1).toNanos();
+
+    // One client for the whole container instead of one per request
+    private static final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    // Overridden by the tests, which run a local stand-in for the extension
+    static volatile String endpoint = envOrDefault("SECRETS_EXTENSION_ENDPOINT", "http://localhost:2773");
+    static volatile LongSupplier clock = System::nanoTime;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong refreshes = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+
+    private static volatile String cachedValue;
+    private static volatile long cachedVersion;
+    private static volatile long fetchedAt;
+    // No fetch is attempted before this time after a failure
+    private static long retryAt;
+    private static int consecutiveFailures;
+
+    private SecretProvider() {
+    }
+
+    public static String getSecret(LambdaLogger logger)
+            throws IOException, InterruptedException, JSONException {
+        String value = cachedValue;
+        long age = clock.getAsLong() - fetchedAt;
+        if (value != null && age < REFRESH_AHEAD_NANOS) {
+            hits.incrementAndGet();
+            return value;
+        }
+
+        synchronized (SecretProvider.class) {
+            long now = clock.getAsLong();
+            value = cachedValue;
+            age = now - fetchedAt;
+            // Another thread may have fetched it while we were waiting
+            if (value != null && age < REFRESH_AHEAD_NANOS) {
+                hits.incrementAndGet();
+                return value;
+            }
+
+            if (value != null && now < retryAt) {
+                // Backing off after a failure: serve what we have while it is not too old
+                return staleOrThrow(value, age, null);
+            }
+
+            if (value == null) {
+                misses.incrementAndGet();
+            }
+            try {
+                fetch();
+                if (value != null) {
+                    refreshes.incrementAndGet();
+                }
+                consecutiveFailures = 0;
+                retryAt = 0L;
+                return cachedValue;
+            } catch (IOException | InterruptedException | JSONException e) {
+                failures.incrementAndGet();
+                consecutiveFailures++;
+                long backoff = Math.min(MAX_BACKOFF_NANOS,
+                        BACKOFF_NANOS << Math.min(consecutiveFailures - 1, 20));
+                retryAt = now + backoff;
+                if (value == null) {
+                    throw e;
+                }
+                logger.log("Secret fetch failed, serving last good value: " + e.getMessage());
+                return staleOrThrow(value, age, e);
+            }
+        }
+    }
+
+    // Forget the cached value, e.g. after a SnapStart restore
+    public static synchronized void invalidate() {
+        cachedValue = null;
+        cachedVersion = 0L;
+        fetchedAt = 0L;
+        retryAt = 0L;
+        consecutiveFailures = 0;
+    }
+
+    // Version of the cached parameter, 0 until the first successful fetch
+    public static long getVersion() {
+        return cachedVersion;
+    }
+
+    public static String stats() {
+        return "hits=" + hits.get()
+                + " misses=" + misses.get()
+                + " refreshes=" + refreshes.get()
+                + " failures=" + failures.get();
+    }
+
+    // Within the TTL the value is simply current; past it, only up to MAX_STALE_NANOS more
+    private static String staleOrThrow(String value, long age, Exception cause) throws IOException {
+        if (age < TTL_NANOS + MAX_STALE_NANOS) {
+            hits.incrementAndGet();
+            return value;
+        }
+        throw new IOException("Secret is " + age / 1_000_000_000L
+                + "s old and the extension is unavailable", cause);
+    }
+
+    private static void fetch() throws IOException, InterruptedException, JSONException {
+        HttpRequest requestParameter = HttpRequest.newBuilder()
+                .uri(URI.create(endpoint
+                        + "/systemsmanager/parameters/get/?name=" + PARAMETER_NAME + "&withDecryption=true"))
+                .header("Accept", "application/json")
+                .header("X-Aws-Parameters-Secrets-Token", envOrDefault("AWS_SESSION_TOKEN", ""))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+
+        HttpResponse<String> responseParameter =
+                client.send(requestParameter, HttpResponse.BodyHandlers.ofString());
+        if (responseParameter.statusCode() != 200) {
+            throw new IOException("Secrets extension returned HTTP " + responseParameter.statusCode());
+        }
+
+        JSONObject parameter = new JSONObject(responseParameter.body()).getJSONObject("Parameter");
+        cachedValue = parameter.getString("Value");
+        cachedVersion = parameter.optLong("Version", 0L);
+        fetchedAt = clock.getAsLong();
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
@@ -0,0 +1,104 @@
+package vgu.cloud26;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA256 token generation and verification.
+ *
+ * Each thread keeps one initialized Mac for the last key it used plus
+ * reusable input/output buffers, so the hot path does not call
+ * Mac.getInstance or allocate intermediate arrays.
+ */
+public final class TokenEngine {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    // Base64 of 32 bytes, padded
+    private static final int TOKEN_LENGTH = 44;
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private TokenEngine() {
+    }
+
+    public static String generate(String data, String key)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        State state = STATE.get();
+        int length = state.sign(data, key);
+        return new String(state.encoded, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    // Compares in constant time, independent of where the tokens differ
+    public static boolean verify(String data, String key, String providedToken)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        if (providedToken == null) {
+            return false;
+        }
+        State state = STATE.get();
+        int length = state.sign(data, key);
+
+        int providedLength = providedToken.length();
+        int diff = length ^ providedLength;
+        for (int i = 0; i < length; i++) {
+            int c = i < providedLength ? providedToken.charAt(i) : 0;
+            diff |= state.encoded[i] ^ c;
+        }
+        return diff == 0;
+    }
+
+    private static final class State {
+        private final byte[] macBytes = new byte[MAC_LENGTH];
+        private final byte[] encoded = new byte[TOKEN_LENGTH];
+        private byte[] input = new byte[64];
+        private Mac mac;
+        private String key;
+
+        private int sign(String data, String newKey)
+                throws NoSuchAlgorithmException, InvalidKeyException {
+            if (mac == null) {
+                mac = Mac.getInstance(ALGORITHM);
+            }
+            if (!newKey.equals(key)) {
+                mac.init(new SecretKeySpec(newKey.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+                key = newKey;
+            }
+
+            int length = copyAscii(data);
+            if (length >= 0) {
+                mac.update(input, 0, length);
+            } else {
+                // Non-ASCII input, let the JDK do the UTF-8 encoding
+                mac.update(data.getBytes(StandardCharsets.UTF_8));
+            }
+            try {
+                mac.doFinal(macBytes, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            return Base64.getEncoder().encode(macBytes, encoded);
+        }
+
+        // Returns the number of bytes copied, or -1 if data is not plain ASCII
+        private int copyAscii(String data) {
+            int length = data.length();
+            if (length > input.length) {
+                input = new byte[Math.max(length, input.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                char c = data.charAt(i);
+                if (c >= 0x80) {
+                    return -1;
+                }
+                input[i] = (byte) c;
+            }
+            return length;
+        }
+    }
+}
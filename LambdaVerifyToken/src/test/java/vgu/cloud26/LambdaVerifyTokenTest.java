@@ -0,0 +1,95 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LambdaVerifyTokenTest {
+
+    private final LambdaVerifyToken handler = new LambdaVerifyToken();
+    private LocalSecretsExtension extension;
+
+    @Before
+    public void setUp() throws Exception {
+        extension = new LocalSecretsExtension();
+        SecretProvider.endpoint = extension.endpoint();
+        SecretProvider.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        extension.close();
+        SecretProvider.invalidate();
+    }
+
+    private static String token(String email) throws Exception {
+        return TokenEngine.generate(email, "secret-1");
+    }
+
+    @Test
+    public void singlePairStillAnswersTrueOrFalse() throws Exception {
+        String body = new JSONObject().put("email", "a@b.c").put("token", token("a@b.c")).toString();
+        assertEquals("true", handler.handleRequest(Map.of("body", body), new TestContext()));
+        assertEquals("false", handler.handleRequest(
+                Map.of("email", "a@b.c", "token", token("x@y.z")), new TestContext()));
+    }
+
+    @Test
+    public void batchKeepsInputOrderAndFetchesTheSecretOnce() throws Exception {
+        JSONArray items = new JSONArray()
+                .put(new JSONObject().put("email", "a@b.c").put("token", token("a@b.c")))
+                .put(new JSONObject().put("email", "d@e.f").put("token", "wrong"))
+                .put(new JSONObject().put("email", "").put("token", "x"))
+                .put(new JSONObject().put("email", "g@h.i").put("token", token("g@h.i")));
+
+        JSONObject response = new JSONObject(handler.handleRequest(
+                Map.of("items", items.toList(), "withVersion", true), new TestContext()));
+        JSONArray results = response.getJSONArray("results");
+
+        assertEquals(4, results.length());
+        assertEquals("a@b.c", results.getJSONObject(0).getString("email"));
+        assertTrue(results.getJSONObject(0).getBoolean("valid"));
+        assertFalse(results.getJSONObject(1).getBoolean("valid"));
+        assertFalse(results.getJSONObject(2).getBoolean("valid"));
+        assertTrue(results.getJSONObject(3).getBoolean("valid"));
+        assertEquals(1L, response.getLong("secretVersion"));
+        assertEquals(1, extension.requests());
+    }
+
+    @Test
+    public void batchEscapesOddEmails() throws Exception {
+        String email = "q\"uote\\d/é@b.c";
+        JSONArray items = new JSONArray().put(new JSONObject().put("email", email).put("token", token(email)));
+        JSONArray results = new JSONArray(handler.handleRequest(
+                Map.of("items", items.toList()), new TestContext()));
+        assertEquals(email, results.getJSONObject(0).getString("email"));
+        assertTrue(results.getJSONObject(0).getBoolean("valid"));
+    }
+
+    @Test
+    public void rawArrayIsABatch() throws Exception {
+        List<Object> items = List.of(Map.of("email", "a@b.c", "token", token("a@b.c")));
+        JSONArray results = new JSONArray(handler.handleRequest(items, new TestContext()));
+        assertTrue(results.getJSONObject(0).getBoolean("valid"));
+    }
+
+    @Test
+    public void unavailableSecretFailsEveryItemWithVersionZero() throws Exception {
+        extension.setFailing(true);
+        JSONArray items = new JSONArray()
+                .put(new JSONObject().put("email", "a@b.c").put("token", token("a@b.c")));
+        JSONObject response = new JSONObject(handler.handleRequest(
+                Map.of("items", items.toList(), "withVersion", true), new TestContext()));
+        assertFalse(response.getJSONArray("results").getJSONObject(0).getBoolean("valid"));
+        assertEquals(0L, response.getLong("secretVersion"));
+    }
+}
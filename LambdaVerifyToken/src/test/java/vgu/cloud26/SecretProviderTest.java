@@ -0,0 +1,131 @@
+package vgu.cloud26;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+/**
+ * SecretProvider against LocalSecretsExtension with a fake clock, using the
+ * default TTL (300s), max stale age (900s) and backoff (1s).
+ */
+public class SecretProviderTest {
+
+    private static final LambdaLogger LOGGER = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void log(byte[] message) {
+        }
+    };
+
+    private final AtomicLong now = new AtomicLong(Duration.ofDays(1).toNanos());
+    private LocalSecretsExtension extension;
+
+    @Before
+    public void setUp() throws IOException {
+        extension = new LocalSecretsExtension();
+        SecretProvider.endpoint = extension.endpoint();
+        SecretProvider.clock = now::get;
+        SecretProvider.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        extension.close();
+        SecretProvider.clock = System::nanoTime;
+        SecretProvider.invalidate();
+    }
+
+    private void advance(long seconds) {
+        now.addAndGet(Duration.ofSeconds(seconds).toNanos());
+    }
+
+    @Test
+    public void servesCachedValueWithinRefreshWindow() throws Exception {
+        assertEquals("secret-1", SecretProvider.getSecret(LOGGER));
+        advance(200);
+        assertEquals("secret-1", SecretProvider.getSecret(LOGGER));
+        assertEquals(1, extension.requests());
+        assertEquals(1L, SecretProvider.getVersion());
+    }
+
+    @Test
+    public void refreshesInsideTheInvocationAfterEightyPercentOfTtl() throws Exception {
+        SecretProvider.getSecret(LOGGER);
+        extension.set("secret-2", 2L);
+        advance(241);
+        assertEquals("secret-2", SecretProvider.getSecret(LOGGER));
+        assertEquals(2, extension.requests());
+        assertEquals(2L, SecretProvider.getVersion());
+    }
+
+    @Test
+    public void servesLastGoodValueAndBacksOffWhenExtensionFails() throws Exception {
+        SecretProvider.getSecret(LOGGER);
+        extension.setFailing(true);
+        advance(301);
+        assertEquals("secret-1", SecretProvider.getSecret(LOGGER));
+        assertEquals(2, extension.requests());
+
+        // Inside the 1s backoff nothing goes to the extension
+        assertEquals("secret-1", SecretProvider.getSecret(LOGGER));
+        assertEquals(2, extension.requests());
+
+        // The second failure doubles the backoff to 2s
+        advance(1);
+        SecretProvider.getSecret(LOGGER);
+        assertEquals(3, extension.requests());
+        advance(1);
+        SecretProvider.getSecret(LOGGER);
+        assertEquals(3, extension.requests());
+
+        extension.setFailing(false);
+        extension.set("secret-2", 2L);
+        advance(1);
+        assertEquals("secret-2", SecretProvider.getSecret(LOGGER));
+        assertEquals(4, extension.requests());
+    }
+
+    @Test
+    public void throwsOnceValueIsPastTtlPlusMaxStale() throws Exception {
+        SecretProvider.getSecret(LOGGER);
+        extension.setFailing(true);
+        advance(300 + 900);
+        try {
+            SecretProvider.getSecret(LOGGER);
+            fail("expected the stale value to be refused");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void throwsWhenFirstFetchFails() throws Exception {
+        extension.setFailing(true);
+        try {
+            SecretProvider.getSecret(LOGGER);
+            fail("expected the failure to surface");
+        } catch (IOException expected) {
+        }
+        assertEquals(0L, SecretProvider.getVersion());
+    }
+
+    @Test
+    public void invalidateForcesAFetch() throws Exception {
+        SecretProvider.getSecret(LOGGER);
+        extension.set("secret-2", 2L);
+        SecretProvider.invalidate();
+        assertEquals("secret-2", SecretProvider.getSecret(LOGGER));
+        assertEquals(2, extension.requests());
+    }
+}
@@ -0,0 +1,94 @@
+package vgu.cloud26;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Verifying {@code size} pairs as one batch against {@code size} single-pair
+ * calls of the handler, with the secret served by LocalSecretsExtension.
+ * Both are measured in-process, so the per-invocation cost that batching
+ * saves in production (one Lambda invoke per pair) is not included; the
+ * numbers are a lower bound. Not run by surefire; run main() on the test
+ * classpath after "mvn test-compile".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerifyBatchBenchmark {
+
+    @Param({"10", "100"})
+    public int size;
+
+    private final LambdaVerifyToken handler = new LambdaVerifyToken();
+    private final TestContext context = new TestContext();
+    private LocalSecretsExtension extension;
+    private List<Map<String, Object>> pairs;
+    private Map<String, Object> batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        extension = new LocalSecretsExtension();
+        SecretProvider.endpoint = extension.endpoint();
+        SecretProvider.invalidate();
+        pairs = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String email = "user" + i + "@vgu.edu.vn";
+            try {
+                pairs.add(Map.of("email", email, "token", TokenEngine.generate(email, "secret-1")));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        batch = Map.of("items", pairs);
+    }
+
+    @TearDown
+    public void tearDown() {
+        extension.close();
+    }
+
+    // One operation = all pairs verified
+    @Benchmark
+    public String batch() {
+        return handler.handleRequest(batch, context);
+    }
+
+    @Benchmark
+    public int single() {
+        int valid = 0;
+        for (Map<String, Object> pair : pairs) {
+            if ("true".equals(handler.handleRequest(pair, context))) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VerifyBatchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}